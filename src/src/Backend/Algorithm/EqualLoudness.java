@@ -25,6 +25,23 @@ public class EqualLoudness {
       -6.0, -5.4, -1.5, 6.0, 12.6, 13.9, 12.3};
   //endregion
 
+  //region Values at each Transform frequency bin
+  // Tf, af and Lu interpolated at each bin's frequency, and the b term of dbToPhons, which only depends on them.
+  static final double[] binTf = atBins(Tf), binAf = atBins(af), binLu = atBins(Lu);
+  static final double[] binB = new double[Transform.FREQUENCY_RESOLUTION];
+  static {
+    for (int i = 0; i < binB.length; i++)
+      binB[i] = Math.pow(0.4 * Math.pow(10, ( ( (binTf[i] + binLu[i]) / 10) - 9) ), binAf[i]);
+  }
+
+  private static double[] atBins(double[] outArray) {
+    double[] result = new double[Transform.FREQUENCY_RESOLUTION];
+    for (int i = 0; i < result.length; i++)
+      result[i] = interpolate(outArray, Transform.frequencyAtBin(i));
+    return result;
+  }
+  //endregion
+
   //region Methods
   public static double phonsToDb(double phons, double frequency) {
     // Get constants
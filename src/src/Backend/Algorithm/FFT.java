@@ -0,0 +1,87 @@
+package Backend.Algorithm;
+
+/**
+ * In-place radix-2 <a href="https://en.wikipedia.org/wiki/Fast_Fourier_transform">Fast Fourier Transform</a>.
+ * How to use: Create an FFT for a power-of-two size once, then call transform/inverse on arrays of that size.
+ * The twiddle tables are never modified, so one FFT can be shared between threads.
+ */
+public class FFT {
+  private final int size;
+  private final double[] cos, sin;
+  private final int[] reverse;
+
+  public FFT(int size) {
+    if (size < 1 || Integer.bitCount(size) != 1)
+      throw new IllegalArgumentException("FFT: Size must be a power of two, was " + size);
+    this.size = size;
+
+    cos = new double[size / 2];
+    sin = new double[size / 2];
+    for (int i = 0; i < size / 2; i++) {
+      cos[i] = Math.cos(2.0 * Math.PI * i / size);
+      sin[i] = Math.sin(2.0 * Math.PI * i / size);
+    }
+
+    reverse = new int[size];
+    int bits = Integer.numberOfTrailingZeros(size);
+    for (int i = 0; i < size; i++)
+      reverse[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  // Smallest power of two that is at least n.
+  public static int nextPowerOfTwo(int n) {
+    return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+  }
+
+  // Forward transform: X[k] = sum(x[n] * e^(-2*pi*i*k*n/size)).
+  public void transform(double[] real, double[] imag) {
+    run(real, imag, -1);
+  }
+
+  // Inverse transform, including the 1/size scaling.
+  public void inverse(double[] real, double[] imag) {
+    run(real, imag, 1);
+    for (int i = 0; i < size; i++) {
+      real[i] /= size;
+      imag[i] /= size;
+    }
+  }
+
+  private void run(double[] real, double[] imag, int sign) {
+    // Bit-reversed reordering.
+    for (int i = 0; i < size; i++) {
+      int j = reverse[i];
+      if (j > i) {
+        double temp = real[i];
+        real[i] = real[j];
+        real[j] = temp;
+        temp = imag[i];
+        imag[i] = imag[j];
+        imag[j] = temp;
+      }
+    }
+
+    // Butterflies.
+    for (int length = 2; length <= size; length *= 2) {
+      int half = length / 2;
+      int step = size / length;
+      for (int start = 0; start < size; start += length) {
+        for (int k = 0; k < half; k++) {
+          double wr = cos[k * step];
+          double wi = sign * sin[k * step];
+          int a = start + k, b = a + half;
+          double tr = (real[b] * wr) - (imag[b] * wi);
+          double ti = (real[b] * wi) + (imag[b] * wr);
+          real[b] = real[a] - tr;
+          imag[b] = imag[a] - ti;
+          real[a] += tr;
+          imag[a] += ti;
+        }
+      }
+    }
+  }
+}
@@ -12,18 +12,22 @@ import java.util.Arrays;
  */
 public class Normalizer {
   //region Fields and public method
-  private final float[][] normalizedLeft, normalizedRight;
+  private final Spectrogram normalizedLeft, normalizedRight;
   // A full amplitude sine wave will be treated as this volume.
   private static final double dbOfMax = 90;
   // The normalizer will try to set a fourier transform to this perceived volume +- errorBound.
   private static final double targetVolume = 256; // 80 phons
   private static final double errorBound = 0.001, ratioMultiplier = 2;//, spreadDamp = 1;
+  // Perceived volume rises about this much in log scale for each step of gain in log scale (2^(0.6*dB/20)).
+  private static final double initialGainSlope = 0.6;
+  // How far the gain is moved in log scale when a step leaves the range known to hold the target volume.
+  private static final double gainExpansion = Math.log(4);
 
   public Normalizer(Transform transform) {
-    float[][] left = transform.getFrequencyAmplitudes(Channel.LEFT);
-    float[][] right = transform.getFrequencyAmplitudes(Channel.RIGHT);
+    Spectrogram left = transform.getSpectrogram(Channel.LEFT);
+    Spectrogram right = transform.getSpectrogram(Channel.RIGHT);
 
-    System.out.println("Normalizer: Running normalization on transform of " + left.length + " samples");
+    System.out.println("Normalizer: Running normalization on transform of " + left.getLength() + " samples");
 
     normalizedLeft = normalizeTransform(left);
     if (right != null)
@@ -32,33 +36,60 @@ public class Normalizer {
       normalizedRight = null;
   }
 
-  public float[][] getNormalized(Channel channel) {
+  public Spectrogram getNormalized(Channel channel) {
     return (channel == Channel.LEFT ? normalizedLeft : normalizedRight);
   }
 
   public static float[][] normalizeTransform(float[][] channel) {
+    if (channel == null)
+      return null;
+    return normalizeTransform(new Spectrogram(channel)).toArray();
+  }
+
+  public static Spectrogram normalizeTransform(Spectrogram channel) {
     // Check null
     if (channel == null)
       return null;
 
-    // Copy array
-    float[][] result = new float[channel.length][channel[0].length];
-    for (int i = 0; i < channel.length; i++)
-      System.arraycopy(channel[i], 0, result[i], 0, channel[0].length);
+    // Every volume measurement also writes the perceived loudness at that gain, so the pass that finds the
+    // correct volume is also the result.
+    Spectrogram result = new Spectrogram(channel.getLength(), channel.getBins());
 
     // Do nothing for silence
-    double currentVolume = getOverallVolume(channel);
+    double currentVolume = getOverallVolume(channel, 1.0, result);
     if (currentVolume == 0)
-      return result;
+      return channel.copy();
 
     // Find correct volume
+    // Perceived volume is close to a power of the gain, so solve for the gain with the secant method in log scale.
+    // The volume always rises with gain, so fall back to bisection whenever a step leaves the range
+    // known to hold the target volume.
+    double logGain = 0.0, logVolume = Math.log(currentVolume), slope = initialGainSlope;
+    double low = Double.NEGATIVE_INFINITY, high = Double.POSITIVE_INFINITY;
     while (Math.abs(currentVolume - targetVolume) > errorBound) {
-      float multiplier = (float) (1 + (((targetVolume / currentVolume) - 1) * ratioMultiplier));
-      multiply2DArray(result, multiplier);
-      currentVolume = getOverallVolume(result);
+      if (currentVolume < targetVolume)
+        low = logGain;
+      else
+        high = logGain;
+
+      double nextLogGain = logGain + ((Math.log(targetVolume) - logVolume) / slope);
+      if (!(nextLogGain > low && nextLogGain < high)) {
+        if (high == Double.POSITIVE_INFINITY)
+          nextLogGain = low + gainExpansion;
+        else if (low == Double.NEGATIVE_INFINITY)
+          nextLogGain = high - gainExpansion;
+        else
+          nextLogGain = (low + high) / 2;
+      }
+
+      currentVolume = getOverallVolume(channel, Math.exp(nextLogGain), result);
+      double nextLogVolume = Math.log(currentVolume);
+      slope = (nextLogVolume - logVolume) / (nextLogGain - logGain);
+      logGain = nextLogGain;
+      logVolume = nextLogVolume;
     }
 
-    return loudnessToPerceivedLoudness(result);
+    return result;
   }
 
   public static double[] normalizeAverage(double[] averageVolume) {
@@ -84,18 +115,23 @@ public class Normalizer {
   //endregion
 
   //region Private methods
-  private static double getOverallVolume(float[][] transform) {
+  // Volume of transform after multiplying it by gain. Writes the perceived loudness of each value to result.
+  private static double getOverallVolume(Spectrogram transform, double gain, Spectrogram result) {
+    float[] values = transform.getValues(), resultValues = result.getValues();
+    int bins = transform.getBins();
     double sum = 0.0;
 
-    for (float[] sample : transform) {
+    for (int start = 0; start < values.length; start += bins) {
       double sampleSum = 0.0;
-      double[] perceivedLoudness = loudnessToPerceivedLoudness(sample);
-      for (double loudness : perceivedLoudness)
+      for (int j = 0; j < bins; j++) {
+        double loudness = perceivedLoudness(values[start + j] * gain, j);
+        resultValues[start + j] = (float) loudness;
         sampleSum += loudness;
+      }
       sum += sampleSum / Transform.FREQUENCY_RESOLUTION;
     }
 
-    return sum / transform.length;
+    return sum / transform.getLength();
   }
 
   private static double getSampleVolume(double[] averageVolume) {
@@ -119,78 +155,47 @@ public class Normalizer {
     return sum / (Transform.FREQUENCY_RESOLUTION);
   }
 
-  private static double loudnessToDb(double loudness) {
-    return dbOfMax + (20 * Math.log10(loudness / Short.MAX_VALUE));
+  // Convert loudness of a frequency bin to perceived loudness.
+  private static double perceivedLoudness(double loudness, int bin) {
+    if (loudness == 0.0)
+      return 0.0;
+    return Math.pow((PerceivedLoudness.scale[bin] * Math.pow(loudness, PerceivedLoudness.exponent[bin])) +
+        PerceivedLoudness.offset[bin], PerceivedLoudness.POWER);
   }
 
-  private static double phonsToLoudness(double phons) {
-    return Math.pow(2, phons / 10);
-  }
-
-  // Convert loudness to perceived loudness.
   private static double[] loudnessToPerceivedLoudness(double[] loudness) {
     double[] result = new double[loudness.length];
-
-    for (int i = 0; i < result.length; i++) {
-      if (loudness[i] == 0.0) {
-        result[i] = 0.0;
-      } else {
-        double db = loudnessToDb(loudness[i]);
-        double frequency = Transform.frequencyAtBin(i);
-        double phons = EqualLoudness.dbToPhons(db, frequency);
-        result[i] = phonsToLoudness(phons);
-      }
-    }
-
-    return result;
-  }
-
-  private static double[] loudnessToPerceivedLoudness(float[] loudness) {
-    double[] result = new double[loudness.length];
-
-    for (int i = 0; i < result.length; i++) {
-      if (loudness[i] == 0.0) {
-        result[i] = 0.0;
-      } else {
-        double db = loudnessToDb(loudness[i]);
-        double frequency = Transform.frequencyAtBin(i);
-        double phons = EqualLoudness.dbToPhons(db, frequency);
-        result[i] = phonsToLoudness(phons);
-      }
-    }
-
+    for (int i = 0; i < result.length; i++)
+      result[i] = perceivedLoudness(loudness[i], i);
     return result;
   }
 
-  private static float[][] loudnessToPerceivedLoudness(float[][] transform) {
-    float[][] result = new float[transform.length][transform[0].length];
-
-    for (int i = 0; i < result.length; i++) {
-      for (int j = 0; j < result[0].length; j++) {
-        if (transform[i][j] == 0.0) {
-          result[i][j] = 0.0f;
-        } else {
-          double db = loudnessToDb(transform[i][j]);
-          double frequency = Transform.frequencyAtBin(j);
-          double phons = EqualLoudness.dbToPhons(db, frequency);
-          result[i][j] = (float)phonsToLoudness(phons);
-        }
+  // Loudness to perceived loudness is:
+  //   dB = dbOfMax + 20 * log10(loudness / Short.MAX_VALUE)
+  //   phons = EqualLoudness.dbToPhons(dB, frequency)
+  //   perceived loudness = 2^(phons / 10)
+  // With a bin's equal loudness constants filled in, this works out to
+  //   (scale * loudness^exponent + offset)^POWER
+  private static class PerceivedLoudness {
+    private static final double POWER = 4 * Math.log10(2);
+    private static final double[] scale = new double[Transform.FREQUENCY_RESOLUTION];
+    private static final double[] exponent = new double[Transform.FREQUENCY_RESOLUTION];
+    private static final double[] offset = new double[Transform.FREQUENCY_RESOLUTION];
+
+    static {
+      for (int i = 0; i < Transform.FREQUENCY_RESOLUTION; i++) {
+        double af = EqualLoudness.binAf[i], lu = EqualLoudness.binLu[i];
+        exponent[i] = 2 * af;
+        scale[i] = Math.pow(10, (af / 10) * (dbOfMax + lu - 94)) / Math.pow(Short.MAX_VALUE, exponent[i]) / 0.00447;
+        offset[i] = 1.15 - (EqualLoudness.binB[i] / 0.00447);
       }
     }
-
-    return result;
   }
 
   private static void multiplyArray(double[] array, double multiplier) {
     for (int i = 0; i < array.length; i++)
       array[i] *= multiplier;
   }
-
-  private static void multiply2DArray(float[][] array, float multiplier) {
-    for (int i = 0; i < array.length; i++)
-      for (int j = 0; j < array[0].length; j++)
-        array[i][j] *= multiplier;
-  }
   //endregion
 
   // Test the effects of normalization on a perfectly flat frequency response.
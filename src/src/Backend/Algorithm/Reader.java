@@ -6,10 +6,18 @@ import fr.delthas.javamp3.Sound;
 import java.io.File;
 import javax.sound.sampled.*;
 
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * @author Ethan Carnahan
@@ -27,16 +35,14 @@ public class Reader {
   private static final int BUFFER_SIZE = 32768; // 32 kB
 
   // Audio channels (mono uses only left)
-  private final short[] left, right;
+  private short[] left, right;
+  // Interleaved samples of a memory-mapped .wav file, de-interleaved into left/right on first use.
+  private final ShortBuffer interleaved;
   private final Mode mode;
-  private final int sampleRate;
+  private final int sampleRate, length;
 
   public static Reader readFile(String filepath) throws IOException {
-    // Get file extension
-    int dotIndex = filepath.lastIndexOf('.');
-    if (dotIndex == -1)
-      throw new IllegalArgumentException("Reader: File must end in .wav or .mp3.");
-    String extension = filepath.substring(dotIndex);
+    String extension = getExtension(filepath);
 
     if (extension.equals(".mp3"))
       return readMP3File(filepath);
@@ -46,31 +52,71 @@ public class Reader {
     throw new IllegalArgumentException("Reader: File must end in .wav or .mp3.");
   }
 
+  // Opens a file to be decoded block-by-block instead of all at once.
+  public static Stream openStream(String filepath) throws IOException {
+    String extension = getExtension(filepath);
+
+    if (extension.equals(".mp3")) {
+      System.out.println("Reader: Streaming file " + filepath);
+      try {
+        Sound sound = new Sound(new FileInputStream(filepath));
+        return new Stream(sound, sound.isStereo() ? Mode.STEREO : Mode.MONO, sound.getSamplingFrequency());
+      } catch (IOException e) {
+        throw new IOException("Reader: Failed to read MP3 file - " + e.getMessage());
+      }
+    }
+    if (extension.equals(".wav")) {
+      Stream mapped = mapWavFile(filepath);
+      if (mapped != null)
+        return mapped;
+      System.out.println("Reader: Streaming file " + filepath);
+      AudioInputStream inputStream = openWavFile(filepath);
+      return new Stream(inputStream, getMode(inputStream), (int)inputStream.getFormat().getSampleRate());
+    }
+
+    throw new IllegalArgumentException("Reader: File must end in .wav or .mp3.");
+  }
+
+  private static String getExtension(String filepath) {
+    int dotIndex = filepath.lastIndexOf('.');
+    if (dotIndex == -1)
+      throw new IllegalArgumentException("Reader: File must end in .wav or .mp3.");
+    return filepath.substring(dotIndex);
+  }
+
   private Reader(short[] left, short[] right, Mode mode, int sampleRate) {
     this.left = left;
     this.right = right;
+    this.interleaved = null;
     this.mode = mode;
     this.sampleRate = sampleRate;
+    this.length = left.length;
+  }
+
+  private Reader(ShortBuffer interleaved, Mode mode, int sampleRate) {
+    this.interleaved = interleaved;
+    this.mode = mode;
+    this.sampleRate = sampleRate;
+    this.length = interleaved.capacity() / (mode == Mode.STEREO ? 2 : 1);
   }
 
   private static Reader readMP3File(String mp3Filepath) throws IOException {
     // Decode mp3 file.
     System.out.println("Reader: Reading file " + mp3Filepath);
     Sound sound;
-    List<Byte> soundBytes = new ArrayList<>(BUFFER_SIZE);
+    SampleBuffer samples;
     try {
       sound = new Sound(new FileInputStream(mp3Filepath));
+      samples = new SampleBuffer(sound.isStereo(), BUFFER_SIZE);
 
-      // JavaMP3's decodeFullyInto() method doesn't work and Java primitive/object typing is garbage.
+      // JavaMP3's decodeFullyInto() method doesn't work, so decode one buffer at a time.
       byte[] buffer = new byte[BUFFER_SIZE];
       while (true) {
         int readLength = sound.read(buffer);
         if (readLength <= 0) {
           break;
         }
-        for (int i = 0; i < readLength; i++) {
-          soundBytes.add(buffer[i]);
-        }
+        samples.append(buffer, readLength);
       }
 
       sound.close();
@@ -82,29 +128,106 @@ public class Reader {
     Mode mode = sound.isStereo() ? Mode.STEREO : Mode.MONO;
     int sampleRate = sound.getSamplingFrequency();
 
-    // Convert bytes to shorts (samples are 16 bits).
-    short[] left, right;
-    if (sound.isStereo()) {
-      left = new short[soundBytes.size() / 4];
-      right = new short[soundBytes.size() / 4];
-      for (int i = 0; i < soundBytes.size() - 3; i += 4) {
-        left[i / 4] = (short) ((soundBytes.get(i) & 0xFF) | (soundBytes.get(i + 1) << 8));
-        right[i / 4] = (short) ((soundBytes.get(i + 2) & 0xFF) | (soundBytes.get(i + 3) << 8));
-      }
-    } else {
-      left = new short[soundBytes.size() / 2];
-      right = null;
-      for (int i = 0; i < soundBytes.size() - 1; i += 2) {
-        left[i / 2] = (short) ((soundBytes.get(i) & 0xFF) | (soundBytes.get(i + 1) << 8));
+    return new Reader(samples.getChannel(Channel.LEFT), samples.getChannel(Channel.RIGHT), mode, sampleRate);
+  }
+
+  private static Reader readWavFile(String wavFilepath) throws IOException {
+    // 16-bit PCM files are mapped straight from disk, anything else goes through AudioSystem.
+    Stream mapped = mapWavFile(wavFilepath);
+    if (mapped != null)
+      return new Reader(mapped.mapped, mapped.mode, mapped.sampleRate);
+    return decodeWavFile(wavFilepath);
+  }
+
+  // Parses the RIFF header and memory-maps the data chunk of a 16-bit PCM .wav file.
+  // Returns null if the file is in a format that needs AudioSystem to decode it.
+  private static Stream mapWavFile(String wavFilepath) throws IOException {
+    try (FileChannel file = FileChannel.open(Paths.get(wavFilepath), StandardOpenOption.READ)) {
+      ByteBuffer header = readChunk(file, 0, 12);
+      if (header == null || !chunkId(header, 0).equals("RIFF") || !chunkId(header, 8).equals("WAVE"))
+        return null;
+
+      int format = 0, numChannels = 0, sampleRate = 0, bitDepth = 0;
+      long position = 12;
+      while (position + 8 <= file.size()) {
+        ByteBuffer chunkHeader = readChunk(file, position, 8);
+        if (chunkHeader == null)
+          return null;
+        String id = chunkId(chunkHeader, 0);
+        long size = Integer.toUnsignedLong(chunkHeader.getInt(4));
+        position += 8;
+
+        if (id.equals("fmt ")) {
+          ByteBuffer fmt = readChunk(file, position, (int)Math.min(size, 40));
+          if (fmt == null || fmt.capacity() < 16)
+            return null;
+          format = fmt.getShort(0) & 0xFFFF;
+          numChannels = fmt.getShort(2);
+          sampleRate = fmt.getInt(4);
+          bitDepth = fmt.getShort(14);
+          // WAVE_FORMAT_EXTENSIBLE stores the actual format at the start of the sub-format GUID.
+          if (format == 0xFFFE && fmt.capacity() >= 26)
+            format = fmt.getShort(24) & 0xFFFF;
+        } else if (id.equals("data")) {
+          if (format != 1 || bitDepth != 16 || numChannels < 1 || numChannels > 2)
+            return null;
+          // Some encoders leave the data size unset (0 or 0xFFFFFFFF) when streaming, so trust the file size instead.
+          long dataLength = file.size() - position;
+          if (size != 0 && size != 0xFFFFFFFFL)
+            dataLength = Math.min(size, dataLength);
+          dataLength -= dataLength % (2L * numChannels);
+          if (dataLength > Integer.MAX_VALUE)
+            return null;
+
+          System.out.println("Reader: Mapping file " + wavFilepath);
+          ShortBuffer samples = file.map(FileChannel.MapMode.READ_ONLY, position, dataLength)
+              .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+          return new Stream(samples, numChannels == 2 ? Mode.STEREO : Mode.MONO, sampleRate);
+        }
+
+        // Chunks are padded to an even number of bytes.
+        position += size + (size & 1);
       }
     }
 
-    return new Reader(left, right, mode, sampleRate);
+    return null;
+  }
+
+  // Reads length bytes at position, or returns null if the file ends first.
+  private static ByteBuffer readChunk(FileChannel file, long position, int length) throws IOException {
+    ByteBuffer result = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (result.hasRemaining()) {
+      int read = file.read(result, position + result.position());
+      if (read == -1)
+        return null;
+    }
+    return result;
+  }
+
+  private static String chunkId(ByteBuffer buffer, int index) {
+    byte[] id = new byte[4];
+    buffer.get(index, id);
+    return new String(id, StandardCharsets.US_ASCII);
   }
 
   // Based on https://docs.oracle.com/javase/tutorial/sound/converters.html
-  private static Reader readWavFile(String wavFilepath) throws IOException {
-    // file
+  private static Reader decodeWavFile(String wavFilepath) throws IOException {
+    // file and metadata
+    AudioInputStream inputStream = openWavFile(wavFilepath);
+    Mode mode = getMode(inputStream);
+    int sampleRate = (int)inputStream.getFormat().getSampleRate();
+
+    // audio data
+    long frameLength = inputStream.getFrameLength();
+    int initialCapacity = (frameLength > 0 && frameLength < Integer.MAX_VALUE) ? (int)frameLength : BUFFER_SIZE;
+    SampleBuffer samples = readSamples(inputStream, mode == Mode.STEREO, initialCapacity);
+    inputStream.close();
+
+    return new Reader(samples.getChannel(Channel.LEFT), samples.getChannel(Channel.RIGHT), mode, sampleRate);
+  }
+
+  // Opens a .wav file with AudioSystem and checks that its format is supported.
+  private static AudioInputStream openWavFile(String wavFilepath) throws IOException {
     AudioInputStream inputStream;
     try {
       inputStream = AudioSystem.getAudioInputStream(new File(wavFilepath));
@@ -113,69 +236,189 @@ public class Reader {
       throw new IOException("Reader: Invalid .wav file - " + e.getMessage());
     }
 
-    // metadata
     int numChannels = inputStream.getFormat().getChannels();
     if (numChannels <= 0 || numChannels > 2)
       throw new IllegalArgumentException("Reader: Does not support " + numChannels + "-channel audio");
-    Mode mode = numChannels == 2 ? Mode.STEREO : Mode.MONO;
-    int sampleRate = (int)inputStream.getFormat().getSampleRate();
     int bitDepth = inputStream.getFormat().getSampleSizeInBits();
     if (bitDepth != 16)
       throw new IllegalArgumentException("Reader: Does not support " + bitDepth + "-bit audio");
 
-    // audio data
-    short[] left, right;
-    if (mode == Mode.STEREO) {
-      short[][] channels = readWavStereo(inputStream);
-      left = channels[0];
-      right = channels[1];
-    } else {
-      left = readWavMono(inputStream);
-      right = null;
-    }
-    inputStream.close();
+    return inputStream;
+  }
 
-    return new Reader(left, right, mode, sampleRate);
+  private static Mode getMode(AudioInputStream inputStream) {
+    return inputStream.getFormat().getChannels() == 2 ? Mode.STEREO : Mode.MONO;
   }
 
-  private static short[] readWavMono(AudioInputStream stream) throws IOException {
-    List<Byte> soundBytes = readBytes(stream);
+  private static SampleBuffer readSamples(AudioInputStream stream, boolean stereo, int initialCapacity)
+      throws IOException {
+    SampleBuffer samples = new SampleBuffer(stereo, initialCapacity);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int bytesRead;
 
-    // Convert bytes to audio samples
-    short[] left = new short[soundBytes.size() / 2];
-    for (int i = 0; i < soundBytes.size() - 1; i += 2) {
-      left[i / 2] = (short) ((soundBytes.get(i) & 0xFF) | (soundBytes.get(i + 1) << 8));
-    }
+    // Read bytes
+    while ((bytesRead = stream.read(buffer)) != -1)
+      samples.append(buffer, bytesRead);
 
-    return left;
+    return samples;
   }
 
-  private static short[][] readWavStereo(AudioInputStream stream) throws IOException {
-    List<Byte> soundBytes = readBytes(stream);
+  // Converts 16-bit little-endian PCM bytes into per-channel samples as they are decoded.
+  // Grows primitive arrays instead of boxing every byte, so peak memory stays close to the final audio size.
+  private static class SampleBuffer {
+    private final boolean stereo;
+    private final int frameSize;
+    private short[] left, right;
+    private int length;
+    // Holds the start of a frame that was split between two reads.
+    private final byte[] partialFrame = new byte[4];
+    private int partialLength;
+
+    private SampleBuffer(boolean stereo, int initialCapacity) {
+      this.stereo = stereo;
+      this.frameSize = stereo ? 4 : 2;
+      this.left = new short[initialCapacity];
+      this.right = stereo ? new short[initialCapacity] : null;
+    }
+
+    private void append(byte[] bytes, int count) {
+      int i = 0;
+
+      // Finish the frame left over from the previous read.
+      while (partialLength > 0 && i < count) {
+        partialFrame[partialLength++] = bytes[i++];
+        if (partialLength == frameSize) {
+          ensureCapacity(length + 1);
+          addFrame(partialFrame, 0);
+          partialLength = 0;
+        }
+      }
+
+      // Convert whole frames.
+      ensureCapacity(length + ((count - i) / frameSize));
+      for (; i + frameSize <= count; i += frameSize)
+        addFrame(bytes, i);
 
-    // Convert bytes to audio samples
-    short[] left = new short[soundBytes.size() / 4];
-    short[] right = new short[soundBytes.size() / 4];
-    for (int i = 0; i < soundBytes.size() - 3; i += 4) {
-      left[i / 4] = (short) ((soundBytes.get(i) & 0xFF) | (soundBytes.get(i + 1) << 8));
-      right[i / 4] = (short) ((soundBytes.get(i + 2) & 0xFF) | (soundBytes.get(i + 3) << 8));
+      // Save incomplete frame for the next read.
+      while (i < count)
+        partialFrame[partialLength++] = bytes[i++];
     }
 
-    return new short[][]{left, right};
+    private void addFrame(byte[] bytes, int index) {
+      left[length] = (short) ((bytes[index] & 0xFF) | (bytes[index + 1] << 8));
+      if (stereo)
+        right[length] = (short) ((bytes[index + 2] & 0xFF) | (bytes[index + 3] << 8));
+      length++;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity <= left.length)
+        return;
+      int newCapacity = Math.max(capacity, left.length + (left.length >> 1));
+      left = Arrays.copyOf(left, newCapacity);
+      if (stereo)
+        right = Arrays.copyOf(right, newCapacity);
+    }
+
+    private void clear() {
+      length = 0;
+    }
+
+    private void copyTo(short[] left, short[] right) {
+      System.arraycopy(this.left, 0, left, 0, length);
+      if (stereo)
+        System.arraycopy(this.right, 0, right, 0, length);
+    }
+
+    // Trims the channel to the number of samples read. Returns null for right channel of mono audio.
+    private short[] getChannel(Channel channel) {
+      short[] samples = (channel == Channel.LEFT) ? left : right;
+      if (samples == null || samples.length == length)
+        return samples;
+      return Arrays.copyOf(samples, length);
+    }
   }
 
-  public static List<Byte> readBytes(AudioInputStream stream) throws IOException {
-    List<Byte> soundBytes = new ArrayList<>(BUFFER_SIZE);
-    byte[] buffer = new byte[BUFFER_SIZE];
-    int bytesRead;
+  // Decodes audio one block at a time, so songs can be processed without holding them in memory.
+  // How to use: Open with Reader.openStream, call read until it returns -1, then close the stream.
+  public static class Stream implements Closeable {
+    // Maximum number of samples per channel returned by each read.
+    public static final int BLOCK_SIZE = 8192;
+
+    private final Mode mode;
+    private final int sampleRate;
+    // Memory-mapped .wav samples, or null if the audio is decoded from source.
+    private final ShortBuffer mapped;
+    private final InputStream source;
+    private final SampleBuffer samples;
+    private final byte[] buffer;
+
+    private Stream(ShortBuffer mapped, Mode mode, int sampleRate) {
+      this.mapped = mapped;
+      this.source = null;
+      this.samples = null;
+      this.buffer = null;
+      this.mode = mode;
+      this.sampleRate = sampleRate;
+    }
 
-    // Read bytes
-    while ((bytesRead = stream.read(buffer)) != -1) {
-      for (int i = 0; i < bytesRead; i++)
-        soundBytes.add(buffer[i]);
+    private Stream(InputStream source, Mode mode, int sampleRate) {
+      this.mapped = null;
+      this.source = source;
+      this.samples = new SampleBuffer(mode == Mode.STEREO, BLOCK_SIZE);
+      this.buffer = new byte[BLOCK_SIZE * samples.frameSize];
+      this.mode = mode;
+      this.sampleRate = sampleRate;
+    }
+
+    public Mode getMode() {
+      return mode;
+    }
+
+    public int getSampleRate() {
+      return sampleRate;
+    }
+
+    // Reads up to BLOCK_SIZE samples per channel. right is not used for mono audio.
+    // Returns the number of samples read, or -1 at the end of the audio.
+    public int read(short[] left, short[] right) throws IOException {
+      if (mapped != null)
+        return readMapped(left, right);
+
+      samples.clear();
+      while (samples.length == 0) {
+        // Leave room for the incomplete frame of the last read so the block never overflows.
+        int bytesRead = source.read(buffer, 0, buffer.length - samples.partialLength);
+        if (bytesRead <= 0)
+          return -1;
+        samples.append(buffer, bytesRead);
+      }
+
+      samples.copyTo(left, right);
+      return samples.length;
+    }
+
+    private int readMapped(short[] left, short[] right) {
+      int length = Math.min(BLOCK_SIZE, mapped.remaining() / (mode == Mode.STEREO ? 2 : 1));
+      if (length == 0)
+        return -1;
+
+      if (mode == Mode.MONO) {
+        mapped.get(left, 0, length);
+      } else {
+        for (int i = 0; i < length; i++) {
+          left[i] = mapped.get();
+          right[i] = mapped.get();
+        }
+      }
+      return length;
     }
 
-    return soundBytes;
+    @Override
+    public void close() throws IOException {
+      if (source != null)
+        source.close();
+    }
   }
 
   public Mode getMode() {
@@ -188,18 +431,42 @@ public class Reader {
 
   // Returns duration in seconds.
   public double getDuration() {
-    return (double) left.length / (double) sampleRate;
+    return (double) length / (double) sampleRate;
+  }
+
+  // Returns number of samples in each channel.
+  public int getLength() {
+    return length;
   }
 
   // returns null for right channel of mono audio file.
-  public short[] getChannel(Channel channel) {
+  public synchronized short[] getChannel(Channel channel) {
+    if (left == null)
+      deinterleave();
     return (channel == Channel.LEFT) ? left : right;
   }
 
+  private void deinterleave() {
+    ShortBuffer samples = interleaved.duplicate();
+    left = new short[length];
+    if (mode == Mode.MONO) {
+      samples.get(left);
+      return;
+    }
+
+    right = new short[length];
+    for (int i = 0; i < length; i++) {
+      left[i] = samples.get(2 * i);
+      right[i] = samples.get((2 * i) + 1);
+    }
+  }
+
   // Prints out the values of the .mp3 or .wav file in args[0].
   public static void main(String[] args) {
     try {
+      long startTime = System.nanoTime();
       Reader reader = readFile(args[0]);
+      System.out.println("Calculation time: " + ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
 
       // format info
       System.out.println("mode = " + reader.getMode());
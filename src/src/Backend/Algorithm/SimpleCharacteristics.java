@@ -4,6 +4,14 @@ import Backend.Algorithm.Reader.Channel;
 import Backend.Helper.PrintHelper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
 
 /**
  * @author Ethan Carnahan
@@ -11,6 +19,11 @@ import java.io.*;
  * How to use: Pass in a Transform object and duration, and call get methods for volume/dynamics information.
  * For now, more dynamic means the rate of change in volume.
  * In the future, more dynamic will mean the bigger peaks in volume are narrower in time.
+ * Saved files are binary, little-endian:
+ * - "ASMRSC" magic, 2-byte version, 1-byte stereo flag, 1 unused byte, 4-byte number of frequency bins.
+ * - Left volume, rise and fall, then right volume, rise and fall if stereo, as blocks of 8-byte doubles.
+ * - CRC32 of everything before it, 4 bytes.
+ * Files in the old text format (one value per line) can still be loaded.
  */
 public class SimpleCharacteristics {
   //region Fields and public methods
@@ -22,10 +35,14 @@ public class SimpleCharacteristics {
   // Needed to weigh rise/fall differently.
   private static final double VOLUME_CHANGE_EXPONENT = 3.0;
   private static final double VOLUME_CHANGE_WEIGHT = 0.01;
+  // Binary file format.
+  private static final byte[] MAGIC = "ASMRSC".getBytes(StandardCharsets.US_ASCII);
+  private static final short VERSION = 1;
+  private static final int HEADER_LENGTH = MAGIC.length + 8, CHECKSUM_LENGTH = 4;
 
   public SimpleCharacteristics(Normalizer normalizer) {
-    float[][] left = normalizer.getNormalized(Channel.LEFT);
-    float[][] right = normalizer.getNormalized(Channel.RIGHT);
+    Spectrogram left = normalizer.getNormalized(Channel.LEFT);
+    Spectrogram right = normalizer.getNormalized(Channel.RIGHT);
 
     System.out.println("SimpleCharacteristics: Calculating characteristics");
 
@@ -68,30 +85,122 @@ public class SimpleCharacteristics {
     return (channel == Channel.LEFT) ? averageLeftFall : averageRightFall;
   }
 
+  public boolean isStereo() {
+    return averageRightVolume != null;
+  }
+
+  // Puts left volume, rise and fall, then right volume, rise and fall if stereo into features.
+  public void putFeatures(DoubleBuffer features) {
+    features.put(averageLeftVolume).put(averageLeftRise).put(averageLeftFall);
+    if (averageRightVolume != null)
+      features.put(averageRightVolume).put(averageRightRise).put(averageRightFall);
+  }
+
+  // Reads features in the order putFeatures writes them.
+  public static SimpleCharacteristics getFeatures(DoubleBuffer features, boolean stereo) {
+    int bins = Transform.FREQUENCY_RESOLUTION;
+    double[][] arrays = new double[stereo ? 6 : 3][bins];
+    for (double[] array : arrays)
+      features.get(array);
+    return stereo ? new SimpleCharacteristics(arrays[0], arrays[3], arrays[1], arrays[4], arrays[2], arrays[5]) :
+        new SimpleCharacteristics(arrays[0], null, arrays[1], null, arrays[2], null);
+  }
+
   public void write(String filepath) throws IOException {
-    File file = new File(filepath);
-    file.createNewFile();
-    BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-
-    writer.write(averageRightVolume != null ? "Stereo" : "Mono");
-    writer.newLine();
-    writeArray(writer, averageLeftVolume);
-    writeArray(writer, averageLeftRise);
-    writeArray(writer, averageLeftFall);
-    if (averageRightVolume != null) {
-      writeArray(writer, averageRightVolume);
-      writeArray(writer, averageRightRise);
-      writeArray(writer, averageRightFall);
+    boolean stereo = averageRightVolume != null;
+    int bins = averageLeftVolume.length;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + (Double.BYTES * bins * (stereo ? 6 : 3)) +
+        CHECKSUM_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.put(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.put((byte) (stereo ? 1 : 0));
+    buffer.put((byte) 0);
+    buffer.putInt(bins);
+    putArray(buffer, averageLeftVolume);
+    putArray(buffer, averageLeftRise);
+    putArray(buffer, averageLeftFall);
+    if (stereo) {
+      putArray(buffer, averageRightVolume);
+      putArray(buffer, averageRightRise);
+      putArray(buffer, averageRightFall);
     }
+    buffer.putInt(checksum(buffer.array(), buffer.position()));
 
-    writer.flush();
-    writer.close();
+    Files.write(Paths.get(filepath), buffer.array());
   }
 
+  // Loads files in the binary or old text format.
   public static SimpleCharacteristics load(String filepath) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(filepath));
+    return load(filepath, false);
+  }
+
+  // If migrate is true, files in the old text format are rewritten in the binary format.
+  public static SimpleCharacteristics load(String filepath, boolean migrate) throws IOException {
+    Path path = Paths.get(filepath);
+    byte[] bytes = Files.readAllBytes(path);
+    if (isBinary(bytes))
+      return loadBinary(bytes);
+
+    SimpleCharacteristics result = loadText(new BufferedReader(new StringReader(
+        new String(bytes, StandardCharsets.US_ASCII))));
+    if (migrate) {
+      System.out.println("SimpleCharacteristics: Converting " + path.getFileName() + " to binary format");
+      result.write(filepath);
+    }
+    return result;
+  }
+  //endregion
+
+  //region Private methods
+  private static boolean isBinary(byte[] bytes) {
+    if (bytes.length < MAGIC.length)
+      return false;
+    for (int i = 0; i < MAGIC.length; i++)
+      if (bytes[i] != MAGIC[i])
+        return false;
+    return true;
+  }
+
+  private static SimpleCharacteristics loadBinary(byte[] bytes) throws IOException {
+    if (bytes.length < HEADER_LENGTH + CHECKSUM_LENGTH)
+      throw new IOException("SimpleCharacteristics: File is too short");
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.position(MAGIC.length);
+    short version = buffer.getShort();
+    if (version != VERSION)
+      throw new IOException("SimpleCharacteristics: Unsupported file version " + version);
+    boolean stereo = buffer.get() != 0;
+    buffer.get();
+    int bins = buffer.getInt();
+    if (bins != Transform.FREQUENCY_RESOLUTION)
+      throw new IOException("SimpleCharacteristics: File has " + bins + " frequency bins, expected " +
+          Transform.FREQUENCY_RESOLUTION);
+    int checksumStart = HEADER_LENGTH + (Double.BYTES * bins * (stereo ? 6 : 3));
+    if (bytes.length != checksumStart + CHECKSUM_LENGTH)
+      throw new IOException("SimpleCharacteristics: File has the wrong length for its header");
+    if (buffer.getInt(checksumStart) != checksum(bytes, checksumStart))
+      throw new IOException("SimpleCharacteristics: Checksum doesn't match, file is corrupted");
+
+    double[] lv = getArray(buffer, bins);
+    double[] lr = getArray(buffer, bins);
+    double[] lf = getArray(buffer, bins);
+    double[] rv = null, rr = null, rf = null;
+    if (stereo) {
+      rv = getArray(buffer, bins);
+      rr = getArray(buffer, bins);
+      rf = getArray(buffer, bins);
+    }
 
-    boolean stereo = reader.readLine().equals("Stereo");
+    return new SimpleCharacteristics(lv, rv, lr, rr, lf, rf);
+  }
+
+  private static SimpleCharacteristics loadText(BufferedReader reader) throws IOException {
+    String mode = reader.readLine();
+    if (mode == null)
+      throw new IOException("SimpleCharacteristics: File is empty");
+    boolean stereo = mode.equals("Stereo");
 
     double[] lv = loadArray(reader);
     double[] lr = loadArray(reader);
@@ -109,10 +218,8 @@ public class SimpleCharacteristics {
 
     return new SimpleCharacteristics(lv, rv, lr, rr, lf, rf);
   }
-  //endregion
 
-  //region Private methods
-  private static double[][] calculateChannelInfo(float[][] channel) {
+  private static double[][] calculateChannelInfo(Spectrogram channel) {
     double[][] result = new double[3][];
     result[0] = calculateVolume(channel);
     result[1] = calculateVolumeChange(channel, true);
@@ -120,56 +227,73 @@ public class SimpleCharacteristics {
     return result;
   }
 
-  private static double[] calculateVolume(float[][] channel) {
-    double[] result = new double[channel[0].length];
-
-    // for each frequency
-    for (int i = 0; i < result.length; i++) {
-      result[i] = 0;
+  // Both scans walk the Spectrogram in memory order, adding each time sample to every frequency's sum.
+  private static double[] calculateVolume(Spectrogram channel) {
+    float[] values = channel.getValues();
+    int bins = channel.getBins();
+    double[] result = new double[bins];
 
-      // for each time
-      for (float[] sample : channel) {
-        result[i] += sample[i];
-      }
+    // for each time
+    for (int start = 0; start < values.length; start += bins)
+      // for each frequency
+      for (int j = 0; j < bins; j++)
+        result[j] += values[start + j];
 
-      result[i] /= channel.length;
-    }
+    for (int j = 0; j < bins; j++)
+      result[j] /= channel.getLength();
 
     return result;
   }
 
-  private static double[] calculateVolumeChange(float[][] channel, boolean rise) {
-    double[] result = new double[channel[0].length];
+  private static double[] calculateVolumeChange(Spectrogram channel, boolean rise) {
+    float[] values = channel.getValues();
+    int bins = channel.getBins();
+    double[] result = new double[bins];
+
+    // for each time
+    for (int start = bins; start < values.length; start += bins) {
+      // for each frequency
+      for (int j = 0; j < bins; j++) {
+        float current = values[start + j], previous = values[start - bins + j];
+        if (rise && current > previous)
+          result[j] += Math.pow(current - previous, VOLUME_CHANGE_EXPONENT);
+        if (!rise && current < previous)
+          result[j] += Math.pow(previous - current, VOLUME_CHANGE_EXPONENT);
+      }
+    }
 
-    // for each frequency
-    for (int j = 0; j < result.length; j++) {
-      result[j] = 0;
+    for (int j = 0; j < bins; j++)
+      result[j] *= VOLUME_CHANGE_WEIGHT / (channel.getLength() * Transform.frequencyAtBin(j));
 
-      // for each time
-      for (int i = 1; i < channel.length; i++) {
-        if (rise && channel[i][j] > channel[i-1][j])
-          result[j] += Math.pow(channel[i][j] - channel[i-1][j], VOLUME_CHANGE_EXPONENT);
-        if (!rise && channel[i][j] < channel[i-1][j])
-          result[j] += Math.pow(channel[i-1][j] - channel[i][j], VOLUME_CHANGE_EXPONENT);
-      }
+    return result;
+  }
 
-      result[j] *= VOLUME_CHANGE_WEIGHT / (channel.length * Transform.frequencyAtBin(j));
-    }
+  private static void putArray(ByteBuffer buffer, double[] array) {
+    buffer.asDoubleBuffer().put(array);
+    buffer.position(buffer.position() + (Double.BYTES * array.length));
+  }
 
+  private static double[] getArray(ByteBuffer buffer, int length) {
+    double[] result = new double[length];
+    buffer.asDoubleBuffer().get(result);
+    buffer.position(buffer.position() + (Double.BYTES * length));
     return result;
   }
 
-  private static void writeArray(BufferedWriter writer, double[] array) throws IOException {
-    for (double value : array) {
-      writer.write(String.valueOf(value));
-      writer.newLine();
-    }
+  private static int checksum(byte[] bytes, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+    return (int) crc.getValue();
   }
 
   private static double[] loadArray(BufferedReader reader) throws IOException {
     double[] result = new double[Transform.FREQUENCY_RESOLUTION];
-    for (int i = 0; i < Transform.FREQUENCY_RESOLUTION; i++)
-      result[i] = Double.parseDouble(reader.readLine());
+    for (int i = 0; i < Transform.FREQUENCY_RESOLUTION; i++) {
+      String line = reader.readLine();
+      if (line == null)
+        throw new IOException("SimpleCharacteristics: File ended early");
+      result[i] = Double.parseDouble(line);
+    }
     return result;
   }
   //endregion
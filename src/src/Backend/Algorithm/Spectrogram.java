@@ -0,0 +1,80 @@
+package Backend.Algorithm;
+
+/**
+ * Frequency amplitudes over time, stored in one flat array ordered by time, then frequency bin.
+ * Each time sample is a contiguous row, so scans over time read memory in order, and tasks can fill
+ * disjoint time ranges of the same Spectrogram without copying their results together afterwards.
+ */
+public class Spectrogram {
+  private final float[] values;
+  private final int length, bins;
+
+  public Spectrogram(int length, int bins) {
+    this.values = new float[length * bins];
+    this.length = length;
+    this.bins = bins;
+  }
+
+  // Copies a [time][frequency bin] array.
+  public Spectrogram(float[][] array) {
+    this(array.length, array[0].length);
+    for (int i = 0; i < length; i++)
+      System.arraycopy(array[i], 0, values, i * bins, bins);
+  }
+
+  // Number of time samples.
+  public int getLength() {
+    return length;
+  }
+
+  // Number of frequency bins.
+  public int getBins() {
+    return bins;
+  }
+
+  public float get(int time, int bin) {
+    return values[(time * bins) + bin];
+  }
+
+  public void set(int time, int bin, float value) {
+    values[(time * bins) + bin] = value;
+  }
+
+  // The backing array, where (time, bin) is at index(time, bin). Changes write through to this Spectrogram.
+  public float[] getValues() {
+    return values;
+  }
+
+  public int index(int time, int bin) {
+    return (time * bins) + bin;
+  }
+
+  // Copy of all frequency bins at one time.
+  public float[] getRow(int time) {
+    float[] result = new float[bins];
+    System.arraycopy(values, time * bins, result, 0, bins);
+    return result;
+  }
+
+  // Copy of one frequency bin over time.
+  public float[] getColumn(int bin) {
+    float[] result = new float[length];
+    for (int i = 0; i < length; i++)
+      result[i] = values[(i * bins) + bin];
+    return result;
+  }
+
+  public Spectrogram copy() {
+    Spectrogram result = new Spectrogram(length, bins);
+    System.arraycopy(values, 0, result.values, 0, values.length);
+    return result;
+  }
+
+  // Copy as a [time][frequency bin] array.
+  public float[][] toArray() {
+    float[][] result = new float[length][bins];
+    for (int i = 0; i < length; i++)
+      System.arraycopy(values, i * bins, result[i], 0, bins);
+    return result;
+  }
+}
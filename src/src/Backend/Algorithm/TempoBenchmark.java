@@ -0,0 +1,81 @@
+package Backend.Algorithm;
+
+import Backend.Algorithm.Reader.Channel;
+import Backend.Algorithm.TemporalCharacteristics.TempoEngine;
+import java.io.IOException;
+
+/**
+ * Checks the tempo engines of TemporalCharacteristics on versions of the same song at different tempos.
+ * How to use: Run main with the audio files as arguments from slowest to fastest, or without arguments to use the
+ * Blue_Pearl tempo variants in src/test/resource. Prints each engine's best rate and calculation time for each song,
+ * and whether each engine's rates get faster in the same order as the files.
+ * A beat repeats every other beat too, so the best rate can be half (or double) the tempo. Rates are moved into the
+ * octave above the first song's rate before comparing, so every song needs to be less than twice as fast as the first.
+ * An engine fails if two songs get the same rate, or if a rate is at the edge of the rates it checks, since those
+ * rates don't say anything about the tempo.
+ */
+public class TempoBenchmark {
+  // Less_Tempo and More_Tempo are sped up less and more than the original, like the other Blue_Pearl variants.
+  // They are about 1.2 and 1.4 times as fast, which matches how much shorter they are.
+  private static final String[] DEFAULT_FILES = {"src/test/resource/Blue_Pearl.mp3",
+      "src/test/resource/Blue_Pearl_Less_Tempo.mp3", "src/test/resource/Blue_Pearl_More_Tempo.mp3"};
+
+  public static void main(String[] args) {
+    String[] files = (args.length > 0) ? args : DEFAULT_FILES;
+    TempoEngine[] engines = TempoEngine.values();
+    // Dimensions from left-to-right: [Engine][File]
+    int[][] bestRates = new int[engines.length][files.length];
+    double[][] seconds = new double[engines.length][files.length];
+
+    try {
+      for (int i = 0; i < files.length; i++) {
+        Normalizer normalizer = new Normalizer(new Transform(Reader.readFile(files[i])));
+        for (int e = 0; e < engines.length; e++) {
+          TemporalCharacteristics characteristics = new TemporalCharacteristics(normalizer, engines[e]);
+          long startTime = System.nanoTime();
+          bestRates[e][i] = characteristics.getBestRate(Channel.LEFT);
+          seconds[e][i] = (System.nanoTime() - startTime) / 1000000000.0;
+        }
+      }
+    } catch (IOException e) {
+      System.out.println(e.getMessage());
+      return;
+    }
+
+    for (int i = 0; i < files.length; i++) {
+      System.out.println(files[i] + ":");
+      for (int e = 0; e < engines.length; e++)
+        System.out.println("  " + engines[e] + ": " + bestRates[e][i] + " BPM (" +
+            toOctave(bestRates[e][i], bestRates[e][0]) + " BPM), calculation time: " + seconds[e][i] + " seconds");
+    }
+
+    for (int e = 0; e < engines.length; e++) {
+      String problem = checkRates(bestRates[e]);
+      System.out.println(engines[e] + ": " + ((problem == null) ? "Ranks songs correctly" : "FAILED - " + problem));
+    }
+  }
+
+  // Returns why rates aren't strictly increasing in tempo, or null if they are.
+  private static String checkRates(int[] rates) {
+    for (int i = 0; i < rates.length; i++)
+      if (rates[i] <= TemporalCharacteristics.RATE_MIN || rates[i] >= TemporalCharacteristics.RATE_MAX)
+        return "Song " + i + " has rate " + rates[i] + " at the edge of the checked rates";
+    for (int i = 1; i < rates.length; i++) {
+      double slower = toOctave(rates[i - 1], rates[0]), faster = toOctave(rates[i], rates[0]);
+      if (slower == faster)
+        return "Songs " + (i - 1) + " and " + i + " are tied at " + faster + " BPM";
+      if (slower > faster)
+        return "Song " + (i - 1) + " (" + slower + " BPM) is faster than song " + i + " (" + faster + " BPM)";
+    }
+    return null;
+  }
+
+  // Doubles or halves rate until it is in [octaveStart, 2 * octaveStart).
+  private static double toOctave(double rate, double octaveStart) {
+    while (rate < octaveStart)
+      rate *= 2;
+    while (rate >= 2 * octaveStart)
+      rate /= 2;
+    return rate;
+  }
+}
@@ -1,6 +1,7 @@
 package Backend.Algorithm;
 
 import Backend.Algorithm.Reader.Channel;
+import Backend.Helper.AnalysisPool;
 import Backend.Helper.PrintHelper;
 import java.io.IOException;
 import java.util.Arrays;
@@ -10,74 +11,266 @@ import java.util.Arrays;
  * Advanced sound analysis that analyzes:
  * - How a frequency bin's volume changes correlates with the volume changes of other bins over time.
  * - The best-matching frequencies of each bin's peaks (BPM).
+ * Each is calculated on the AnalysisPool the first time it is requested, so the SimpleCharacteristics
+ * of a TemporalCharacteristics are as cheap as a SimpleCharacteristics.
  */
 public class TemporalCharacteristics extends SimpleCharacteristics {
   //region Fields and public methods
-  // Dimensions from left-to-right: [This bin][Bin compared to][Number of samples ahead]
-  private final double[][][] leftCorrelaton, rightCorrelation;
-  // Dimensions from left-to-right: [This bin][Possible peak frequency]
-  private final double[][] leftPeakRates, rightPeakRates;
+  private final ChannelTensors left, right;
   // Number of samples to look ahead.
   private static final int CORRELATION_SAMPLES = (int)Math.round(Transform.TIME_RESOLUTION * 2); // From 0 to 2 seconds ahead
+  // Volume changes per block of the correlation FFT, needs to be at least CORRELATION_SAMPLES - 1.
+  private static final int CORRELATION_BLOCK = FFT.nextPowerOfTwo(CORRELATION_SAMPLES);
   // Which peak rates to check in beats-per-minute.
-  private static final int RATE_MIN = 30;
-  private static final int RATE_MAX = 600; // Needs to be less than (60 * Transform.TIME_RESOLUTION / 3).
+  static final int RATE_MIN = 30;
+  static final int RATE_MAX = 600; // Needs to be less than (60 * Transform.TIME_RESOLUTION / 3).
+
+  // How the peak rates are calculated.
+  // AUTOCORRELATION autocorrelates each bin's volume rises once with an FFT, and reads every rate from it.
+  // PEAK_SCAN runs a peak detection window over the bin for each rate, and adds up the peaks at every beat.
+  // AUTOCORRELATION is the default since it ranks the Blue_Pearl tempo variants correctly in TempoBenchmark.
+  public enum TempoEngine {AUTOCORRELATION, PEAK_SCAN}
+  public static final TempoEngine DEFAULT_TEMPO_ENGINE = TempoEngine.AUTOCORRELATION;
 
   public TemporalCharacteristics(Normalizer normalizer) {
-    super(normalizer);
-    float[][] left = normalizer.getNormalized(Channel.LEFT);
-    float[][] right = normalizer.getNormalized(Channel.RIGHT);
+    this(normalizer, DEFAULT_TEMPO_ENGINE);
+  }
 
-    System.out.println("TemporalCharacteristics: Calculating characteristics");
+  public TemporalCharacteristics(Normalizer normalizer, TempoEngine tempoEngine) {
+    super(normalizer);
+    Spectrogram leftChannel = normalizer.getNormalized(Channel.LEFT);
+    Spectrogram rightChannel = normalizer.getNormalized(Channel.RIGHT);
 
-    leftCorrelaton = calculateCorrelation(left, getAverageVolume(Channel.LEFT));
-    leftPeakRates = calculatePeakRates(left, getAverageVolume(Channel.LEFT));
-    if (right != null) {
-      rightCorrelation = calculateCorrelation(right, getAverageVolume(Channel.RIGHT));
-      rightPeakRates = calculatePeakRates(right, getAverageVolume(Channel.RIGHT));
-    } else {
-      rightCorrelation = null;
-      rightPeakRates = null;
-    }
+    left = new ChannelTensors(leftChannel, getAverageVolume(Channel.LEFT), tempoEngine);
+    if (rightChannel != null)
+      right = new ChannelTensors(rightChannel, getAverageVolume(Channel.RIGHT), tempoEngine);
+    else
+      right = null;
   }
 
+  // Dimensions from left-to-right: [This bin][Bin compared to][Number of samples ahead]
   public double[][][] getCorrelation(Channel channel) {
-    return (channel == Channel.LEFT ? leftCorrelaton : rightCorrelation);
+    ChannelTensors tensors = (channel == Channel.LEFT ? left : right);
+    return (tensors == null) ? null : tensors.getCorrelation();
   }
 
+  // Dimensions from left-to-right: [This bin][Possible peak frequency]
+  // Higher is a better match, from 0.0 to 1.0 for the best match of any bin in the channel with either TempoEngine.
+  // Bins that are always silent are NaN.
   public double[][] getPeakRates(Channel channel) {
-    return (channel == Channel.LEFT ? leftPeakRates : rightPeakRates);
+    ChannelTensors tensors = (channel == Channel.LEFT ? left : right);
+    return (tensors == null) ? null : tensors.getPeakRates();
+  }
+
+  // The rate in BPM that best matches all frequency bins together.
+  public int getBestRate(Channel channel) {
+    double[][] peakRates = getPeakRates(channel);
+    if (peakRates == null)
+      return -1;
+
+    int result = RATE_MIN;
+    double bestMatch = Double.NEGATIVE_INFINITY;
+    for (int j = 0; j < peakRates[0].length; j++) {
+      double match = 0.0;
+      for (double[] bin : peakRates)
+        if (!Double.isNaN(bin[j]))
+          match += bin[j];
+      if (match > bestMatch) {
+        bestMatch = match;
+        result = RATE_MIN + j;
+      }
+    }
+    return result;
   }
   //endregion
 
+  // One channel's volume over time, and its tensors once they have been requested.
+  private static class ChannelTensors {
+    private final Spectrogram channel;
+    private final double[] averageVolume;
+    private final TempoEngine tempoEngine;
+    private float[][] bins;
+    private double[][][] correlation;
+    private double[][] peakRates;
+
+    private ChannelTensors(Spectrogram channel, double[] averageVolume, TempoEngine tempoEngine) {
+      this.channel = channel;
+      this.averageVolume = averageVolume;
+      this.tempoEngine = tempoEngine;
+    }
+
+    private synchronized double[][][] getCorrelation() {
+      if (correlation == null) {
+        System.out.println("TemporalCharacteristics: Calculating correlation");
+        correlation = calculateCorrelation(getBins(), averageVolume);
+      }
+      return correlation;
+    }
+
+    private synchronized double[][] getPeakRates() {
+      if (peakRates == null) {
+        System.out.println("TemporalCharacteristics: Calculating peak rates");
+        peakRates = calculatePeakRates(getBins(), averageVolume, tempoEngine);
+      }
+      return peakRates;
+    }
+
+    // Every calculation here scans one frequency bin over time, so each bin is copied out of the Spectrogram
+    // the first time a tensor is requested, and shared by both tensors.
+    // Dimensions from left-to-right: [Frequency bin][Time]
+    private synchronized float[][] getBins() {
+      if (bins == null) {
+        float[][] result = new float[channel.getBins()][];
+        AnalysisPool.forEach(result.length, i -> result[i] = channel.getColumn(i));
+        bins = result;
+      }
+      return bins;
+    }
+  }
+
   //region Private methods
-  private static double[][][] calculateCorrelation(float[][] channel, double[] averageVolume) {
+
+  // Correlation = sum(bin A volume change * bin B volume change some samples ahead).
+  // Every number of samples ahead is calculated at once as a cross-correlation in the frequency domain.
+  // The volume changes are split into blocks of CORRELATION_BLOCK (overlap-save): Bin A's block is zero-padded to
+  // twice its length, and bin B's block reaches into the next block, so no sample ahead wraps around the FFT.
+  // The spectrums of each block are only calculated once per bin, and adding up the cross spectrums of every
+  // block means each pair of bins only needs one inverse FFT.
+  private static double[][][] calculateCorrelation(float[][] bins, double[] averageVolume) {
     double[][][] result = new double[Transform.FREQUENCY_RESOLUTION][Transform.FREQUENCY_RESOLUTION][CORRELATION_SAMPLES];
-    for (int i = 0; i < result.length; i++)
-      for (int j = 0; j < result[0].length; j++)
-        for (int k = 0; k < result[0][0].length; k++)
-          result[i][j][k] = correlation(channel, i, j, k, averageVolume);
+    int length = bins[0].length;
+    int changes = Math.max(0, length - 1);
+    int blocks = (changes + CORRELATION_BLOCK - 1) / CORRELATION_BLOCK;
+    FFT fft = new FFT(2 * CORRELATION_BLOCK);
+    int size = fft.getSize();
+    // Volume changes are real, so only the spectrum's non-negative frequencies are kept.
+    int half = CORRELATION_BLOCK + 1;
+
+    // Dimensions from left-to-right: [Frequency bin][Block * half + frequency]
+    double[][] aReal = new double[bins.length][blocks * half], aImag = new double[bins.length][blocks * half];
+    double[][] bReal = new double[bins.length][blocks * half], bImag = new double[bins.length][blocks * half];
+    AnalysisPool.forEach(bins.length, i -> {
+      double[] real = new double[size], imag = new double[size];
+      for (int block = 0; block < blocks; block++) {
+        int start = block * CORRELATION_BLOCK;
+        blockSpectrum(fft, bins[i], start, Math.min(start + CORRELATION_BLOCK, changes), real, imag);
+        System.arraycopy(real, 0, aReal[i], block * half, half);
+        System.arraycopy(imag, 0, aImag[i], block * half, half);
+        blockSpectrum(fft, bins[i], start, Math.min(start + size, changes), real, imag);
+        System.arraycopy(real, 0, bReal[i], block * half, half);
+        System.arraycopy(imag, 0, bImag[i], block * half, half);
+      }
+    });
+
+    // Each task fills in every pair of one bin A.
+    AnalysisPool.forEach(result.length, i -> {
+      double[] real = new double[size], imag = new double[size];
+      double[] crossReal = new double[half], crossImag = new double[half];
+      for (int j = 0; j < result[0].length; j++) {
+        // conj(bin A spectrum) * bin B spectrum, added up over every block.
+        Arrays.fill(crossReal, 0.0);
+        Arrays.fill(crossImag, 0.0);
+        double[] ar = aReal[i], ai = aImag[i], br = bReal[j], bi = bImag[j];
+        for (int index = 0; index < blocks * half; index += half) {
+          for (int k = 0; k < half; k++) {
+            crossReal[k] += (ar[index + k] * br[index + k]) + (ai[index + k] * bi[index + k]);
+            crossImag[k] += (ar[index + k] * bi[index + k]) - (ai[index + k] * br[index + k]);
+          }
+        }
+
+        // Negative frequencies are the conjugates of the positive ones.
+        for (int k = 0; k < size; k++) {
+          real[k] = crossReal[(k < half) ? k : size - k];
+          imag[k] = (k < half) ? crossImag[k] : -crossImag[size - k];
+        }
+        fft.inverse(real, imag);
+
+        for (int k = 0; k < result[0][0].length; k++) {
+          double sum = (k < changes) ? real[k] : 0.0;
+          result[i][j][k] = sum / ((length - k - 1) * averageVolume[i]);
+        }
+      }
+    });
+
     return result;
   }
 
-  // Correlation = sum(bin A volume change * bin B volume change).
-  private static double correlation(float[][] channel, int binA, int binB, int samplesAhead, double[] averageVolume) {
-    double result = 0.0;
+  // Spectrum of a bin's volume changes from start to end, zero-padded to the FFT's size.
+  // Volume change i is bin[i + 1] - bin[i].
+  private static void blockSpectrum(FFT fft, float[] bin, int start, int end, double[] real, double[] imag) {
+    Arrays.fill(real, 0.0);
+    Arrays.fill(imag, 0.0);
+    for (int i = start; i < end; i++)
+      real[i - start] = bin[i + 1] - bin[i];
+    fft.transform(real, imag);
+  }
 
-    for (int i = 1; i < channel.length - samplesAhead; i++) {
-      double a = channel[i][binA] - channel[i - 1][binA];
-      double b = channel[i + samplesAhead][binB] - channel[i + samplesAhead - 1][binB];
-      result += a * b;
+  private static double[][] calculatePeakRates(float[][] bins, double[] averageVolume, TempoEngine tempoEngine) {
+    double[][] result = new double[Transform.FREQUENCY_RESOLUTION][RATE_MAX - RATE_MIN + 1];
+    if (tempoEngine == TempoEngine.AUTOCORRELATION) {
+      FFT fft = new FFT(FFT.nextPowerOfTwo(bins[0].length + (int)Math.ceil(samplesPerBeat(RATE_MIN)) + 1));
+      AnalysisPool.forEach(result.length, i -> result[i] = autocorrelationRates(fft, bins[i], averageVolume[i]));
+    } else {
+      AnalysisPool.forEach(result.length, i -> {
+        for (int j = 0; j < result[0].length; j++)
+          result[i][j] = peakRateMatch(bins[i], RATE_MIN + j, averageVolume[i]);
+      });
     }
 
-    return result / ((channel.length - samplesAhead - 1) * averageVolume[binA]);
+    // Each engine has its own scale, so divide by the best match to compare them.
+    double bestMatch = 0.0;
+    for (double[] bin : result)
+      for (double match : bin)
+        if (match > bestMatch)
+          bestMatch = match;
+    if (bestMatch > 0.0)
+      for (double[] bin : result)
+        for (int j = 0; j < bin.length; j++)
+          bin[j] /= bestMatch;
+    return result;
   }
 
-  private static double[][] calculatePeakRates(float[][] channel, double[] averageVolume) {
-    double[][] result = new double[Transform.FREQUENCY_RESOLUTION][RATE_MAX - RATE_MIN + 1];
-    for (int i = 0; i < result.length; i++)
-      for (int j = 0; j < result[0].length; j++)
-        result[i][j] = peakRateMatch(channel, i, RATE_MIN + j, averageVolume);
+  private static double samplesPerBeat(int rate) {
+    return Transform.TIME_RESOLUTION / (rate / 60.0);
+  }
+
+  // Autocorrelation strategy: A bin's beats show up as volume rises that repeat every beat, so the autocorrelation
+  // of the rises at the length of a beat shows how well each rate matches.
+  // The square root is used so the match scales with volume like the peaks of PEAK_SCAN.
+  // fft needs to fit the bin plus the longest beat.
+  private static double[] autocorrelationRates(FFT fft, float[] bin, double averageVolume) {
+    double[] result = new double[RATE_MAX - RATE_MIN + 1];
+    double[] real = new double[fft.getSize()], imag = new double[fft.getSize()];
+
+    // Volume rises, minus their average so that a steady amount of change doesn't match every rate.
+    int rises = Math.max(0, bin.length - 1);
+    double average = 0.0;
+    for (int i = 0; i < rises; i++) {
+      real[i] = Math.max(0.0, bin[i + 1] - bin[i]);
+      average += real[i];
+    }
+    average /= Math.max(1, rises);
+    for (int i = 0; i < rises; i++)
+      real[i] -= average;
+
+    // Autocorrelation = inverse FFT(|FFT(rises)|^2), zero-padded so beats don't wrap around.
+    fft.transform(real, imag);
+    for (int i = 0; i < real.length; i++) {
+      real[i] = (real[i] * real[i]) + (imag[i] * imag[i]);
+      imag[i] = 0.0;
+    }
+    fft.inverse(real, imag);
+
+    for (int j = 0; j < result.length; j++) {
+      double samplesPerBeat = samplesPerBeat(RATE_MIN + j);
+      // Average over the number of rises that overlap at this length.
+      double overlap = rises - samplesPerBeat;
+      if (overlap <= 0)
+        continue;
+      double correlation = interpolate(real, samplesPerBeat) / overlap;
+      result[j] = Math.sqrt(Math.max(0.0, correlation)) / averageVolume;
+    }
+
     return result;
   }
 
@@ -85,21 +278,21 @@ public class TemporalCharacteristics extends SimpleCharacteristics {
   // Generate a peak detection window for each BPM, with {-1.0, 1.0, 1.0, -1.0} being the smallest possible window.
   // Slide window across channel to generate "is peak" values for each sample.
   // Iterate across "is peak" array by different amounts for each BPM to calculate match amount.
-  private static double peakRateMatch(float[][] channel, int bin, int rate, double[] averageVolume) {
+  private static double peakRateMatch(float[] bin, int rate, double averageVolume) {
     double result = 0.0;
-    double samplesPerBeat = Transform.TIME_RESOLUTION / (rate / 60.0);
+    double samplesPerBeat = samplesPerBeat(rate);
 
     double[] window = getWindow(rate);
-    double[] peaks = getPeaks(channel, bin, window);
+    double[] peaks = getPeaks(bin, window);
 
     for (int i = 0; i < window.length; i++) {
       double loopResult = 0.0;
-      for (double j = i; j < channel.length - 1; j += samplesPerBeat)
+      for (double j = i; j < bin.length - 1; j += samplesPerBeat)
         loopResult += interpolate(peaks, j);
       result = Math.max(result, loopResult);
     }
 
-    return result * samplesPerBeat / (channel.length * averageVolume[bin]);
+    return result * samplesPerBeat / (bin.length * averageVolume);
   }
 
   private static double[] getWindow(int rate) {
@@ -120,13 +313,13 @@ public class TemporalCharacteristics extends SimpleCharacteristics {
   }
 
   // Runs peak detection window through transform samples.
-  private static double[] getPeaks(float[][] channel, int bin, double[] window) {
-    double[] result = new double[channel.length];
+  private static double[] getPeaks(float[] bin, double[] window) {
+    double[] result = new double[bin.length];
 
     for (int i = window.length / 2; i < result.length - (window.length / 2); i++) {
       double windowSum = 0.0;
       for (int j = 0; j < window.length; j++)
-        windowSum += window[j] * channel[i + j - (window.length / 2)][bin];
+        windowSum += window[j] * bin[i + j - (window.length / 2)];
       result[i] = windowSum;
     }
 
@@ -145,13 +338,17 @@ public class TemporalCharacteristics extends SimpleCharacteristics {
   //endregion
 
   // Prints the average correlation/peak rate information of the audio file in args[0].
+  // Optionally pass AUTOCORRELATION or PEAK_SCAN in args[1].
   public static void main(String[] args) {
     try {
       Reader reader = Reader.readFile(args[0]);
+      TempoEngine tempoEngine = (args.length > 1) ? TempoEngine.valueOf(args[1]) : DEFAULT_TEMPO_ENGINE;
       Transform transform = new Transform(reader);
       Normalizer normalizer = new Normalizer(transform);
       long startTime = System.nanoTime();
-      TemporalCharacteristics temporalCharacteristics = new TemporalCharacteristics(normalizer);
+      TemporalCharacteristics temporalCharacteristics = new TemporalCharacteristics(normalizer, tempoEngine);
+      temporalCharacteristics.getCorrelation(Channel.LEFT);
+      temporalCharacteristics.getPeakRates(Channel.LEFT);
       System.out.println("Calculation time: " + ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
 
       System.out.println("Left channel characteristics:");
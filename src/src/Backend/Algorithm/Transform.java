@@ -1,16 +1,26 @@
 package Backend.Algorithm;
 
 import Backend.Algorithm.Reader.Channel;
+import Backend.Helper.AnalysisPool;
 import Backend.Helper.PrintHelper;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author Ethan Carnahan
  * Performs a <a href="https://en.wikipedia.org/wiki/Constant-Q_transform">Constant-Q Transform</a> on an audio
- * signal. How to use: Pass in a Reader object to generate the Transform, then use getTransform to
- * get the frequency/amplitude data.
+ * signal. How to use: Pass in a Reader object to generate the Transform, then use getSpectrogram to
+ * get the frequency/amplitude data. Pass in a Reader.Stream instead to transform the audio while it is
+ * still being decoded.
  */
 public class Transform {
 
@@ -19,6 +29,7 @@ public class Transform {
   public static final double TIME_RESOLUTION = 40;
   // There are this many frequency bins between the top/bottom frequency.
   public static final int FREQUENCY_RESOLUTION = 60; // 10 octaves * 6 bins per octave.
+  private static final int BINS_PER_OCTAVE = 6;
   // Smaller number = less leaking between frequency bins but takes longer to calculate.
   private static final double BOTTOM_FILTER_WIDTH = 4;
   public static final double BOTTOM_FREQUENCY = 20; // Lowest audible pitch in Hz.
@@ -27,10 +38,33 @@ public class Transform {
   private static final double TWO_PI = Math.PI * 2.0;
   private static final float HALF_PI = (float)Math.PI / 2.0f;
 
-  // First dimension is time index, second dimension is frequency index, value is amplitude.
-  private final float[][] leftFrequencyAmplitudes, rightFrequencyAmplitudes;
+  // How the CQT is calculated.
+  // DIRECT sums every window of every frame separately.
+  // SPARSE_KERNEL runs one FFT per frame and multiplies it with precomputed spectral kernels
+  // (see <a href="https://doi.org/10.1121/1.404385">Brown and Puckette, 1992</a>).
+  // MULTIRATE low-pass filters and halves the sample rate once per octave below the top two, so every octave
+  // uses the second octave's short windows. The top two octaves share the full sample rate because the wide
+  // windows of each octave's highest bins would otherwise reach past the halved Nyquist frequency.
+  // It needs the whole song, so it can't be used on a Reader.Stream.
+  public enum Engine {DIRECT, SPARSE_KERNEL, MULTIRATE}
+  // SPARSE_KERNEL amplitudes are within this fraction of the frame's loudest DIRECT amplitude.
+  public static final double SPARSE_KERNEL_TOLERANCE = 0.01;
+  // MULTIRATE average amplitude of each bin is within this fraction of the DIRECT average.
+  // Single frames of noisy audio can differ more, since lower octaves' windows can only be placed to the
+  // nearest decimated sample.
+  public static final double MULTIRATE_TOLERANCE = 0.05;
+  // Set to true to run the DIRECT and MULTIRATE sums on VectorKernel, see setVectorKernel.
+  public static final String VECTOR_KERNEL_PROPERTY = "asmr.transform.vector";
+  private static boolean vectorKernel = Boolean.getBoolean(VECTOR_KERNEL_PROPERTY) && vectorKernelAvailable();
+
+  // Amplitude of each time index and frequency index.
+  private final Spectrogram leftFrequencyAmplitudes, rightFrequencyAmplitudes;
 
   public Transform(Reader audio) {
+    this(audio, Engine.DIRECT);
+  }
+
+  public Transform(Reader audio, Engine engine) {
     System.out.println("Transform: Running transform on " + (int)audio.getDuration() + " seconds of audio");
 
     // Check audio length
@@ -43,20 +77,72 @@ public class Transform {
 
     // Perform transform
     leftFrequencyAmplitudes = multithread_cqt(audio.getChannel(Channel.LEFT), timeSamples,
-        audio.getSampleRate());
+        audio.getSampleRate(), engine);
       if (audio.getMode() == Reader.Mode.STEREO) {
           rightFrequencyAmplitudes = multithread_cqt(audio.getChannel(Channel.RIGHT), timeSamples,
-              audio.getSampleRate());
+              audio.getSampleRate(), engine);
       } else {
           rightFrequencyAmplitudes = null;
       }
   }
 
+  // Transforms audio as it is decoded, keeping only about the largest window of audio in memory.
+  // Frames are spaced exactly 1 / TIME_RESOLUTION seconds apart since the song length isn't known in advance,
+  // so frame positions can drift by up to one frame from the Reader constructor's evenly stretched frames.
+  public Transform(Reader.Stream audio) throws IOException {
+    this(audio, Engine.DIRECT);
+  }
+
+  public Transform(Reader.Stream audio, Engine engine) throws IOException {
+    if (engine == Engine.MULTIRATE)
+      throw new IllegalArgumentException("Transform: MULTIRATE engine needs the whole song, use a Reader instead.");
+    System.out.println("Transform: Running streaming transform");
+
+    StreamingCQT left = new StreamingCQT(audio.getSampleRate(), engine);
+    StreamingCQT right = (audio.getMode() == Reader.Mode.STEREO) ? new StreamingCQT(audio.getSampleRate(), engine) : null;
+    short[] leftBlock = new short[Reader.Stream.BLOCK_SIZE];
+    short[] rightBlock = new short[Reader.Stream.BLOCK_SIZE];
+
+    ForkJoinPool fjp = AnalysisPool.get();
+    int length;
+    while ((length = audio.read(leftBlock, rightBlock)) != -1) {
+      left.append(leftBlock, length, fjp);
+      if (right != null)
+        right.append(rightBlock, length, fjp);
+    }
+
+    leftFrequencyAmplitudes = left.finish(fjp);
+    rightFrequencyAmplitudes = (right != null) ? right.finish(fjp) : null;
+  }
+
   // Passing right channel on mono song will return null.
-  public float[][] getFrequencyAmplitudes(Channel channel) {
+  public Spectrogram getSpectrogram(Channel channel) {
     return (channel == Channel.LEFT) ? leftFrequencyAmplitudes : rightFrequencyAmplitudes;
   }
 
+  // Copy of getSpectrogram as a [time index][frequency index] array.
+  public float[][] getFrequencyAmplitudes(Channel channel) {
+    Spectrogram spectrogram = getSpectrogram(channel);
+    return (spectrogram == null) ? null : spectrogram.toArray();
+  }
+
+  // Uses VectorKernel for the DIRECT and MULTIRATE engines if enabled and the Vector API is available.
+  // Returns whether it will be used. Only call this while no transforms are running.
+  public static boolean setVectorKernel(boolean enabled) {
+    vectorKernel = enabled && vectorKernelAvailable();
+    return vectorKernel;
+  }
+
+  private static boolean vectorKernelAvailable() {
+    try {
+      Class.forName("jdk.incubator.vector.FloatVector");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      System.out.println("Transform: Vector API not available, run java with --add-modules jdk.incubator.vector");
+      return false;
+    }
+  }
+
   // Tells you the frequency of any bin.
   public static double frequencyAtBin(int index) {
     return BOTTOM_FREQUENCY * Math.pow(TOP_BOTTOM_RATIO, (double) index / FREQUENCY_RESOLUTION);
@@ -89,92 +175,475 @@ public class Transform {
   */
 
   // Chad Multi-threaded CQT
-  private static float[][] multithread_cqt(short[] audioSamples, int samples, int sampleRate) {
-    CQT task = new CQT(audioSamples, sampleRate, samples, 0, samples);
-    try (ForkJoinPool fjp = new ForkJoinPool()) {
-      return fjp.invoke(task);
-    }
+  // Every task writes its own time range of one shared Spectrogram, so nothing needs to be joined afterwards.
+  private static Spectrogram multithread_cqt(short[] audioSamples, int samples, int sampleRate, Engine engine) {
+    double audioSamplesPerSample = (double) audioSamples.length / samples;
+    short[][] octaveSamples = (engine == Engine.MULTIRATE) ? decimateOctaves(audioSamples) : null;
+    Spectrogram result = new Spectrogram(samples, FREQUENCY_RESOLUTION);
+    AnalysisPool.get().invoke(new CQT(audioSamples, octaveSamples, sampleRate, audioSamplesPerSample, 0,
+        0, samples, engine, result, 0));
+    return result;
   }
 
-  private static class CQT extends RecursiveTask<float[][]> {
+  private static class CQT extends RecursiveAction {
     private final short[] audioSamples;
-    private final int sampleRate, samples, sampleStart, sampleEnd;
+    // MULTIRATE only: [number of decimations][audio sample], see decimateOctaves.
+    private final short[][] octaveSamples;
+    private final double audioSamplesPerSample;
+    // audioSamples[0] is this sample of the song (non-zero when only part of the song is in memory).
+    private final int audioOffset;
+    private final int sampleRate, sampleStart, sampleEnd;
+    private final Engine engine;
+    // Time index i is written to result's time index i - resultOffset.
+    private final Spectrogram result;
+    private final int resultOffset;
     // Each thread runs on <1 second of audio.
     private static final int threshold = (int)TIME_RESOLUTION;
 
-    public CQT(short[] audioSamples, int sampleRate, int samples, int sampleStart, int sampleEnd) {
+    public CQT(short[] audioSamples, short[][] octaveSamples, int sampleRate, double audioSamplesPerSample,
+        int audioOffset, int sampleStart, int sampleEnd, Engine engine, Spectrogram result, int resultOffset) {
+      this.engine = engine;
       this.audioSamples = audioSamples;
+      this.octaveSamples = octaveSamples;
       this.sampleRate = sampleRate;
-      this.samples = samples;
+      this.audioSamplesPerSample = audioSamplesPerSample;
+      this.audioOffset = audioOffset;
       this.sampleStart = sampleStart;
       this.sampleEnd = sampleEnd;
+      this.result = result;
+      this.resultOffset = resultOffset;
     }
 
     @Override
-    protected float[][] compute() {
+    protected void compute() {
       int length = sampleEnd - sampleStart;
-      if (length <= threshold)
-        return partialCQT();
+      if (length <= threshold) {
+        switch (engine) {
+          case DIRECT -> partialCQT();
+          case SPARSE_KERNEL -> partialSparseCQT();
+          case MULTIRATE -> partialMultirateCQT();
+        }
+        return;
+      }
+
+      CQT firstTask = new CQT(audioSamples, octaveSamples, sampleRate, audioSamplesPerSample, audioOffset,
+          sampleStart, sampleStart + (length / 2), engine, result, resultOffset);
+      CQT secondTask = new CQT(audioSamples, octaveSamples, sampleRate, audioSamplesPerSample, audioOffset,
+          sampleStart + (length / 2), sampleEnd, engine, result, resultOffset);
+      invokeAll(firstTask, secondTask);
+    }
+
+    private void partialCQT() {
+      WindowKernel kernel = WindowKernel.get(sampleRate);
+      // VectorKernel only: Audio reached by the widest window of every time sample.
+      float[] floatSamples = null;
+      int floatStart = 0;
+      if (vectorKernel) {
+        int maxWindow = kernel.cos[0].length;
+        floatStart = audioCenter(sampleStart) - (maxWindow / 2);
+        floatSamples = toFloat(audioSamples, floatStart, audioCenter(sampleEnd - 1) - (maxWindow / 2) + maxWindow);
+      }
 
-      CQT firstTask = new CQT(audioSamples, sampleRate, samples,
-          sampleStart, sampleStart + (length / 2));
-      firstTask.fork();
-      CQT secondTask = new CQT(audioSamples, sampleRate, samples, sampleStart + (length / 2),
-          sampleEnd);
-      float[][] secondResult = secondTask.compute();
-      float[][] firstResult = firstTask.join();
+      // for each frequency bin
+      for (int j = 0; j < FREQUENCY_RESOLUTION; j++) {
+        float[] cos = kernel.cos[j], sin = kernel.sin[j];
+        int windowLength = cos.length;
+        // for each time sample
+        for (int i = sampleStart; i < sampleEnd; i++) {
+          int audioStart = audioCenter(i) - (windowLength / 2);
+          result.set(i - resultOffset, j, (floatSamples != null) ?
+              VectorKernel.transform(floatSamples, audioStart - floatStart, cos, sin) :
+              transform(audioSamples, audioStart, cos, sin));
+        }
+      }
+    }
 
-      return joinArrays(firstResult, secondResult);
+    private void partialSparseCQT() {
+      SpectralKernel kernel = SpectralKernel.get(sampleRate);
+      double[] real = new double[kernel.fft.getSize()];
+      double[] imag = new double[kernel.fft.getSize()];
+
+      // for each time sample
+      for (int i = sampleStart; i < sampleEnd; i++) {
+        kernel.transform(audioSamples, audioCenter(i), real, imag, result.getValues(), result.index(i - resultOffset, 0));
+      }
     }
 
-    private float[][] partialCQT() {
-      int length = sampleEnd - sampleStart;
-      float[][] result = new float[length][FREQUENCY_RESOLUTION];
-      double audioSamplesPerSample = (double) audioSamples.length / samples;
+    private void partialMultirateCQT() {
+      WindowKernel kernel = WindowKernel.getMultirate(sampleRate);
+      // VectorKernel only: Audio of the current decimation reached by its widest window, which is the window
+      // of its lowest bin.
+      float[] floatSamples = null;
+      int floatStart = 0, floatDecimations = -1;
 
       // for each frequency bin
       for (int j = 0; j < FREQUENCY_RESOLUTION; j++) {
-        double frequency = frequencyAtBin(j);
-        int windowLength = windowLength(j, sampleRate);
+        int decimations = decimations(j);
+        short[] samples = octaveSamples[decimations];
+        int decimation = 1 << decimations;
+        float[] cos = kernel.cos[j], sin = kernel.sin[j];
+        int windowLength = cos.length;
+        if (vectorKernel && decimations != floatDecimations) {
+          floatStart = multirateCenter(sampleStart, decimation) - (windowLength / 2);
+          floatSamples = toFloat(samples, floatStart,
+              multirateCenter(sampleEnd - 1, decimation) - (windowLength / 2) + windowLength);
+          floatDecimations = decimations;
+        }
         // for each time sample
         for (int i = sampleStart; i < sampleEnd; i++) {
-          int audioCenter = (int) (i * audioSamplesPerSample);
-          int audioStart = audioCenter - (windowLength / 2);
-          result[i - sampleStart][j] = transform(audioSamples, audioStart, windowLength, frequency, sampleRate) / windowLength;
+          int audioStart = multirateCenter(i, decimation) - (windowLength / 2);
+          result.set(i - resultOffset, j, (floatSamples != null) ?
+              VectorKernel.transform(floatSamples, audioStart - floatStart, cos, sin) :
+              transform(samples, audioStart, cos, sin));
         }
       }
+    }
+
+    private int audioCenter(int sample) {
+      return (int) (sample * audioSamplesPerSample) - audioOffset;
+    }
+
+    private int multirateCenter(int sample, int decimation) {
+      return (int) Math.round((double) (int) (sample * audioSamplesPerSample) / decimation);
+    }
+
+    // Samples from start to end as floats, mirrored at the edges of the song.
+    private static float[] toFloat(short[] samples, int start, int end) {
+      float[] result = new float[end - start];
+      for (int i = 0; i < result.length; i++)
+        result[i] = mirrorBounds(samples, start + i);
+      return result;
+    }
+  }
+
+  // Buffers one channel of streamed audio and runs the CQT on each second of it once its windows are complete.
+  private static class StreamingCQT {
+    private final int sampleRate, maxWindow, maxHalfWindow;
+    private final Engine engine;
+    private final double audioSamplesPerSample;
+    // Sliding window of the song, where buffer[0] is sample number bufferStart.
+    private short[] buffer;
+    private int bufferStart, bufferLength;
+    // Start of the song, needed to mirror the windows of the first samples.
+    private final short[] head;
+    private int headLength;
+    private int nextSample;
+    // Transforms still running, and every submitted second of the result in order.
+    // The song length isn't known yet, so each second gets its own Spectrogram until finish.
+    private final Deque<ForkJoinTask<?>> pending = new ArrayDeque<>();
+    private final List<Spectrogram> results = new ArrayList<>();
+
+    private StreamingCQT(int sampleRate, Engine engine) {
+      this.sampleRate = sampleRate;
+      this.engine = engine;
+      this.maxWindow = windowLength(0, sampleRate);
+      this.maxHalfWindow = maxWindow / 2;
+      this.audioSamplesPerSample = sampleRate / TIME_RESOLUTION;
+      this.buffer = new short[2 * maxWindow + Reader.Stream.BLOCK_SIZE];
+      this.head = new short[maxHalfWindow + 1];
+    }
+
+    private void append(short[] block, int length, ForkJoinPool fjp) {
+      // Save start of song.
+      if (headLength < head.length) {
+        int headCopy = Math.min(length, head.length - headLength);
+        System.arraycopy(block, 0, head, headLength, headCopy);
+        headLength += headCopy;
+      }
+
+      // Forget audio that no remaining window reaches.
+      int keepStart = Math.max(0, audioCenter(nextSample) - maxWindow);
+      if (keepStart > bufferStart) {
+        int drop = Math.min(keepStart - bufferStart, bufferLength);
+        System.arraycopy(buffer, drop, buffer, 0, bufferLength - drop);
+        bufferStart += drop;
+        bufferLength -= drop;
+      }
+
+      if (bufferLength + length > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(bufferLength + length, buffer.length * 2));
+      System.arraycopy(block, 0, buffer, bufferLength, length);
+      bufferLength += length;
+
+      // Transform each second of audio once the windows of its last sample are complete.
+      int bufferEnd = bufferStart + bufferLength;
+      while (audioCenter(nextSample + CQT.threshold - 1) + maxWindow - maxHalfWindow <= bufferEnd)
+        submit(nextSample + CQT.threshold, -1, fjp);
+    }
 
+    private Spectrogram finish(ForkJoinPool fjp) {
+      int audioLength = bufferStart + bufferLength;
+      int samples = (int) (TIME_RESOLUTION * ((double) audioLength / sampleRate));
+      if (samples < 1) {
+        throw new IllegalArgumentException(
+            "Transform: Audio file is too short, needs to be at least " + (1 / TIME_RESOLUTION)
+                + " seconds long.");
+      }
+
+      // Windows past the end of the song are mirrored back in-bounds.
+      while (nextSample < samples)
+        submit(Math.min(nextSample + CQT.threshold, samples), audioLength, fjp);
+      while (!pending.isEmpty())
+        pending.removeFirst().join();
+
+      Spectrogram result = new Spectrogram(samples, FREQUENCY_RESOLUTION);
+      int index = 0;
+      for (Spectrogram partialResult : results) {
+        float[] values = partialResult.getValues();
+        System.arraycopy(values, 0, result.getValues(), index, values.length);
+        index += values.length;
+      }
       return result;
     }
 
-    private static float[][] joinArrays(float[][] a, float[][] b) {
-      float[][] result = new float[a.length + b.length][a[0].length];
+    // Copies the audio that samples nextSample to sampleEnd need and transforms it on the pool.
+    // audioLength is -1 if the end of the song hasn't been read yet.
+    private void submit(int sampleEnd, int audioLength, ForkJoinPool fjp) {
+      int audioStart = audioCenter(nextSample) - maxHalfWindow;
+      int audioEnd = audioCenter(sampleEnd - 1) + maxWindow - maxHalfWindow;
+      short[] audio = new short[audioEnd - audioStart];
+      for (int i = 0; i < audio.length; i++)
+        audio[i] = bufferedSample(audioStart + i, audioLength);
+
+      Spectrogram partialResult = new Spectrogram(sampleEnd - nextSample, FREQUENCY_RESOLUTION);
+      results.add(partialResult);
+      pending.addLast(fjp.submit(new CQT(audio, null, sampleRate, audioSamplesPerSample, audioStart,
+          nextSample, sampleEnd, engine, partialResult, nextSample)));
+      nextSample = sampleEnd;
+
+      // Don't let decoding run too far ahead of the transform.
+      while (pending.size() > 2 * fjp.getParallelism())
+        pending.removeFirst().join();
+    }
+
+    // Same as mirrorBounds, but for the part of the song currently buffered.
+    private short bufferedSample(int index, int audioLength) {
+      if (index < 0)
+        return (short) (-head[-index] & 0xFFFF);
+      if (audioLength != -1 && index >= audioLength)
+        return (short) (-buffer[(2 * audioLength) - index - 2 - bufferStart] & 0xFFFF);
+      return buffer[index - bufferStart];
+    }
+
+    private int audioCenter(int sample) {
+      return (int) (sample * audioSamplesPerSample);
+    }
+  }
+
+  // Frequency-domain CQT kernels for one sample rate.
+  // Each bin's window is multiplied with its sinusoid exactly as in transform, then moved into the frequency
+  // domain, where it only has a few significant values. Each frame then only needs one FFT plus a short
+  // sparse dot product per bin, instead of a full windowed sum per bin.
+  private static class SpectralKernel {
+    // Kernel values smaller than this fraction of the bin's largest kernel value are dropped.
+    private static final double SPARSE_THRESHOLD = 0.0005;
+    private static final Map<Integer, SpectralKernel> cache = new ConcurrentHashMap<>();
+
+    private final FFT fft;
+    private final int maxWindow, maxHalfWindow;
+    // Non-zero kernel values of each bin: [bin][value]
+    private final int[][] indices;
+    private final double[][] kernelReal, kernelImag;
+
+    private static SpectralKernel get(int sampleRate) {
+      return cache.computeIfAbsent(sampleRate, SpectralKernel::new);
+    }
+
+    private SpectralKernel(int sampleRate) {
+      WindowKernel window = WindowKernel.get(sampleRate);
+      maxWindow = windowLength(0, sampleRate);
+      maxHalfWindow = maxWindow / 2;
+      fft = new FFT(FFT.nextPowerOfTwo(maxWindow));
+      int size = fft.getSize();
+      indices = new int[FREQUENCY_RESOLUTION][];
+      kernelReal = new double[FREQUENCY_RESOLUTION][];
+      kernelImag = new double[FREQUENCY_RESOLUTION][];
+
+      double[] real = new double[size], imag = new double[size];
+      for (int j = 0; j < FREQUENCY_RESOLUTION; j++) {
+        float[] cos = window.cos[j], sin = window.sin[j];
+        int windowLength = cos.length;
+        int start = (size / 2) - (windowLength / 2);
+
+        // Conjugate of the time-domain kernel, centered in the frame like the windows in transform.
+        Arrays.fill(real, 0.0);
+        Arrays.fill(imag, 0.0);
+        for (int i = 0; i < windowLength; i++) {
+          real[start + i] = cos[i];
+          imag[start + i] = -sin[i];
+        }
+        fft.transform(real, imag);
+
+        // By Parseval's theorem, sum(frame * kernel) = sum(FFT(frame) * conj(FFT(conj(kernel)))) / size.
+        double max = 0.0;
+        for (int k = 0; k < size; k++)
+          max = Math.max(max, Math.hypot(real[k], imag[k]));
+        int count = 0;
+        for (int k = 0; k < size; k++)
+          if (Math.hypot(real[k], imag[k]) >= max * SPARSE_THRESHOLD)
+            count++;
+        indices[j] = new int[count];
+        kernelReal[j] = new double[count];
+        kernelImag[j] = new double[count];
+        count = 0;
+        for (int k = 0; k < size; k++) {
+          if (Math.hypot(real[k], imag[k]) >= max * SPARSE_THRESHOLD) {
+            indices[j][count] = k;
+            kernelReal[j][count] = real[k] / size;
+            kernelImag[j][count] = -imag[k] / size;
+            count++;
+          }
+        }
+      }
+    }
+
+    // Transforms the frame centered on audioCenter into result, starting at resultOffset.
+    // real/imag are working space of the FFT's size.
+    private void transform(short[] audioSamples, int audioCenter, double[] real, double[] imag, float[] result,
+        int resultOffset) {
+      int size = fft.getSize();
+      int frameStart = audioCenter - (size / 2);
+
+      // Only copy the audio the largest window reaches, so the frame matches the DIRECT windows.
+      Arrays.fill(real, 0.0);
+      Arrays.fill(imag, 0.0);
+      int copyEnd = (size / 2) - maxHalfWindow + maxWindow;
+      for (int i = (size / 2) - maxHalfWindow; i < copyEnd; i++)
+        real[i] = mirrorBounds(audioSamples, frameStart + i);
+      fft.transform(real, imag);
+
+      for (int j = 0; j < FREQUENCY_RESOLUTION; j++) {
+        int[] binIndices = indices[j];
+        double[] binReal = kernelReal[j], binImag = kernelImag[j];
+        double realSum = 0.0, complexSum = 0.0;
+        for (int k = 0; k < binIndices.length; k++) {
+          int index = binIndices[k];
+          realSum += (real[index] * binReal[k]) - (imag[index] * binImag[k]);
+          complexSum += (real[index] * binImag[k]) + (imag[index] * binReal[k]);
+        }
+        result[resultOffset + j] = (float) Math.sqrt((realSum * realSum) + (complexSum * complexSum));
+      }
+    }
+  }
+
+  // MULTIRATE engine: Returns the audio at the full sample rate, then low-pass filtered and decimated by 2
+  // once for each octave below the top two.
+  private static short[][] decimateOctaves(short[] audioSamples) {
+    short[][] result = new short[(FREQUENCY_RESOLUTION / BINS_PER_OCTAVE) - 1][];
+    result[0] = audioSamples;
+    for (int i = 1; i < result.length; i++)
+      result[i] = decimate(result[i - 1]);
+    return result;
+  }
 
-      for (int i = 0; i < a.length; i++)
-        System.arraycopy(a[i], 0, result[i], 0, a[0].length);
-      for (int i = 0; i < b.length; i++)
-        System.arraycopy(b[i], 0, result[i + a.length], 0, b[0].length);
+  private static short[] decimate(short[] audioSamples) {
+    short[] result = new short[(audioSamples.length + 1) / 2];
+    int halfLength = HalfbandFilter.taps.length / 2;
+
+    for (int i = 0; i < result.length; i++) {
+      int center = 2 * i;
+      double sum = HalfbandFilter.taps[halfLength] * audioSamples[center];
+      // Every even tap except the center is zero, and the filter is symmetric.
+      for (int k = 1; k <= halfLength; k += 2)
+        sum += HalfbandFilter.taps[halfLength + k] *
+            (mirrorBounds(audioSamples, center - k) + mirrorBounds(audioSamples, center + k));
+      result[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum)));
+    }
+
+    return result;
+  }
 
+  // Low-pass filter with its cutoff at half the Nyquist frequency, used before halving the sample rate.
+  // Blackman-windowed sinc, which is flat up to the top octave's highest bin after decimation.
+  private static class HalfbandFilter {
+    private static final int HALF_LENGTH = 32;
+    private static final double[] taps = generateTaps();
+
+    private static double[] generateTaps() {
+      double[] result = new double[(2 * HALF_LENGTH) + 1];
+      double sum = 0.0;
+      for (int i = -HALF_LENGTH; i <= HALF_LENGTH; i++) {
+        double sinc = (i == 0) ? 1.0 : Math.sin(Math.PI * i / 2.0) / (Math.PI * i / 2.0);
+        double angle = Math.PI * i / HALF_LENGTH;
+        double window = 0.42 + (0.5 * Math.cos(angle)) + (0.08 * Math.cos(2 * angle));
+        result[i + HALF_LENGTH] = sinc * window;
+        sum += result[i + HALF_LENGTH];
+      }
+      for (int i = 0; i < result.length; i++)
+        result[i] /= sum;
       return result;
     }
   }
 
-  // Performs transform for a specific frequency and time period.
-  private static float transform(short[] audioSamples, int start, int length, double frequency, int sampleRate) {
+  // Windowed sinusoids of every frequency bin for one sample rate, scaled by 1 / window length.
+  // Window length and frequency only depend on the bin and sample rate, so transform only has to multiply
+  // them with the audio and add.
+  private static class WindowKernel {
+    private static final Map<Integer, WindowKernel> cache = new ConcurrentHashMap<>();
+    private static final Map<Integer, WindowKernel> multirateCache = new ConcurrentHashMap<>();
+
+    // [bin][index in window]
+    private final float[][] cos, sin;
+
+    private static WindowKernel get(int sampleRate) {
+      return cache.computeIfAbsent(sampleRate, rate -> new WindowKernel(rate, false));
+    }
+
+    // Windows for the decimated audio of the MULTIRATE engine.
+    private static WindowKernel getMultirate(int sampleRate) {
+      return multirateCache.computeIfAbsent(sampleRate, rate -> new WindowKernel(rate, true));
+    }
+
+    private WindowKernel(int sampleRate, boolean multirate) {
+      cos = new float[FREQUENCY_RESOLUTION][];
+      sin = new float[FREQUENCY_RESOLUTION][];
+
+      for (int j = 0; j < FREQUENCY_RESOLUTION; j++) {
+        // Halving the sample rate is the same as doubling the frequency and halving the window.
+        int decimation = multirate ? 1 << decimations(j) : 1;
+        double frequency = frequencyAtBin(j) * decimation;
+        int windowLength = (int)Math.ceil(sampleRate / (filterWidth(j) * decimation));
+        cos[j] = new float[windowLength];
+        sin[j] = new float[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+          double angle = i * TWO_PI * frequency / sampleRate;
+          double window = window(i, windowLength) / windowLength;
+          cos[j][i] = (float) (window * FasterTrig.cos(angle));
+          sin[j][i] = (float) (window * FasterTrig.sin(angle));
+        }
+      }
+    }
+  }
+
+  // Performs transform for the window of one frequency bin starting at start.
+  private static float transform(short[] audioSamples, int start, float[] cos, float[] sin) {
     double realSum = 0.0, complexSum = 0.0;
+    int length = cos.length;
 
-    int end = start + length;
-    for (int i = start; i < end; i++) {
-      double angle = (i - start) * TWO_PI * frequency / sampleRate;
-      double window = window(i - start, length);
-      short sample = mirrorBounds(audioSamples, i);
-      realSum += window * sample * FasterTrig.cos(angle);
-      complexSum += window * sample * FasterTrig.sin(angle);
+    if (start >= 0 && start + length <= audioSamples.length) {
+      for (int i = 0; i < length; i++) {
+        double sample = audioSamples[start + i];
+        realSum += cos[i] * sample;
+        complexSum += sin[i] * sample;
+      }
+    } else {
+      // Window reaches past the start or end of the song.
+      for (int i = 0; i < length; i++) {
+        double sample = mirrorBounds(audioSamples, start + i);
+        realSum += cos[i] * sample;
+        complexSum += sin[i] * sample;
+      }
     }
 
     return (float) Math.sqrt((realSum * realSum) + (complexSum * complexSum));
   }
 
+  // MULTIRATE engine: The top two octaves use the full sample rate, each octave below that is decimated once more.
+  private static int decimations(int frequencyBin) {
+    int octaveBelowTop = (FREQUENCY_RESOLUTION - 1 - frequencyBin) / BINS_PER_OCTAVE;
+    return Math.max(0, octaveBelowTop - 1);
+  }
+
   private static int windowLength(int frequencyBin, int sampleRate) {
     return (int)Math.ceil(sampleRate / filterWidth(frequencyBin));
   }
@@ -229,18 +698,20 @@ public class Transform {
   //endregion
 
   // Prints the frequency/amplitude information of the audio file in args[0]
+  // Optionally pass DIRECT, SPARSE_KERNEL or MULTIRATE in args[1] to compare engines.
   public static void main(String[] args) {
     try {
       Reader reader = Reader.readFile(args[0]);
+      Engine engine = (args.length > 1) ? Engine.valueOf(args[1]) : Engine.DIRECT;
       long startTime = System.nanoTime();
-      Transform transform = new Transform(reader);
+      Transform transform = new Transform(reader, engine);
       System.out.println("Calculation time: " + ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
 
       System.out.println("Left channel frequency analysis:");
       PrintHelper.printFrequencies();
-      float[][] left = transform.getFrequencyAmplitudes(Channel.LEFT);
-      for (int i = 0; i < left.length; i += TIME_RESOLUTION)
-        PrintHelper.printValues("T = " + PrintHelper.format.format(i / TIME_RESOLUTION), left[i]);
+      Spectrogram left = transform.getSpectrogram(Channel.LEFT);
+      for (int i = 0; i < left.getLength(); i += TIME_RESOLUTION)
+        PrintHelper.printValues("T = " + PrintHelper.format.format(i / TIME_RESOLUTION), left.getRow(i));
 
     } catch (IOException e) {
       System.out.println(e.getMessage());
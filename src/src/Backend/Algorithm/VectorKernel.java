@@ -0,0 +1,76 @@
+package Backend.Algorithm;
+
+import Backend.Algorithm.Reader.Channel;
+import java.io.IOException;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Transform's windowed sum, using the incubating <a href="https://openjdk.org/jeps/426">Vector API</a> to
+ * multiply as many samples with their window coefficients per instruction as the CPU allows.
+ * How to use: Run java with --add-modules jdk.incubator.vector and -Dasmr.transform.vector=true, or call
+ * Transform.setVectorKernel(true). Transform uses its scalar loop when the Vector API isn't available.
+ */
+public class VectorKernel {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  // Same as Transform.transform, but the window must be in bounds of audioSamples.
+  static float transform(float[] audioSamples, int start, float[] cos, float[] sin) {
+    FloatVector realSums = FloatVector.zero(SPECIES), complexSums = FloatVector.zero(SPECIES);
+    int length = cos.length;
+    int vectorEnd = SPECIES.loopBound(length);
+
+    int i = 0;
+    for (; i < vectorEnd; i += SPECIES.length()) {
+      FloatVector samples = FloatVector.fromArray(SPECIES, audioSamples, start + i);
+      realSums = FloatVector.fromArray(SPECIES, cos, i).fma(samples, realSums);
+      complexSums = FloatVector.fromArray(SPECIES, sin, i).fma(samples, complexSums);
+    }
+
+    double realSum = realSums.reduceLanes(VectorOperators.ADD);
+    double complexSum = complexSums.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      double sample = audioSamples[start + i];
+      realSum += cos[i] * sample;
+      complexSum += sin[i] * sample;
+    }
+
+    return (float) Math.sqrt((realSum * realSum) + (complexSum * complexSum));
+  }
+
+  // Times the scalar and vector kernels on the audio file in args[0] (src/test/resource/Blue_Pearl.mp3 by default).
+  // Optionally pass DIRECT or MULTIRATE in args[1].
+  public static void main(String[] args) {
+    try {
+      Reader reader = Reader.readFile((args.length > 0) ? args[0] : "src/test/resource/Blue_Pearl.mp3");
+      Transform.Engine engine = (args.length > 1) ? Transform.Engine.valueOf(args[1]) : Transform.Engine.DIRECT;
+      System.out.println("VectorKernel: " + SPECIES.length() + " floats per vector");
+
+      float[][] results = new float[2][];
+      double[] seconds = new double[2];
+      for (int run = 0; run < 2; run++) {
+        if (Transform.setVectorKernel(run == 1) != (run == 1))
+          return;
+        new Transform(reader, engine); // Warm up
+        long startTime = System.nanoTime();
+        Transform transform = new Transform(reader, engine);
+        seconds[run] = (System.nanoTime() - startTime) / 1000000000.0;
+        results[run] = transform.getSpectrogram(Channel.LEFT).getValues();
+      }
+
+      double maxDifference = 0.0, max = 0.0;
+      for (int i = 0; i < results[0].length; i++) {
+        maxDifference = Math.max(maxDifference, Math.abs(results[0][i] - results[1][i]));
+        max = Math.max(max, results[0][i]);
+      }
+
+      System.out.println("Scalar calculation time: " + seconds[0] + " seconds");
+      System.out.println("Vector calculation time: " + seconds[1] + " seconds");
+      System.out.println("Speedup: " + (seconds[0] / seconds[1]) + "x");
+      System.out.println("Largest difference: " + (maxDifference / max) + " of the loudest amplitude");
+    } catch (IOException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+}
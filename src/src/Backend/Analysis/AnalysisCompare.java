@@ -1,36 +1,125 @@
 package Backend.Analysis;
 
+import Backend.Helper.AnalysisPool;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
  * Calls CompareTo on a list of sound analyses and returns a sorted list of song pairs sorted by match value.
  */
 public class AnalysisCompare {
+  // Songs per side of the square tiles compareAllPairs splits the comparison matrix into.
+  // 32 SimpleAnalysis songs on each side of a tile take about 200KB, which fits in most L2 caches.
+  private static final int BLOCK_SIZE = 32;
 
   public static class CompareResult {
     public final SoundAnalysis a, b;
     public final double result;
 
     public CompareResult(SoundAnalysis a, SoundAnalysis b) {
+      this(a, b, a.compareTo(b));
+    }
+
+    private CompareResult(SoundAnalysis a, SoundAnalysis b, double result) {
       this.a = a;
       this.b = b;
-      this.result = a.compareTo(b);
+      this.result = result;
     }
   }
 
+  // Keeps the best and worst results offered to it in two bounded heaps, so only those results are ever stored.
+  // Tied results are ranked like compareAnalyses ranks them: the one offered later is listed first.
+  public static class TopMatches {
+    // Later offered results rank higher among ties.
+    private static final Comparator<Kept> WORST_FIRST =
+        Comparator.<Kept>comparingDouble(kept -> kept.match.result).thenComparingLong(kept -> kept.order);
+    // Roots are the worst kept best match and the best kept worst match.
+    private final PriorityQueue<Kept> best, worst;
+    private final int bestCount, worstCount;
+    private long offered;
+
+    private static class Kept {
+      private final CompareResult match;
+      private final long order;
+
+      private Kept(CompareResult match, long order) {
+        this.match = match;
+        this.order = order;
+      }
+    }
+
+    public TopMatches(int bestCount, int worstCount) {
+      if (bestCount < 0 || worstCount < 0)
+        throw new IllegalArgumentException("AnalysisCompare: Match counts can't be negative");
+      this.bestCount = bestCount;
+      this.worstCount = worstCount;
+      this.best = new PriorityQueue<>(bestCount + 1, WORST_FIRST);
+      this.worst = new PriorityQueue<>(worstCount + 1, WORST_FIRST.reversed());
+    }
+
+    // Compares a to b and keeps the result if it's one of the best or worst so far.
+    public void offer(SoundAnalysis a, SoundAnalysis b) {
+      offer(a, b, a.compareTo(b));
+    }
+
+    public void offer(SoundAnalysis a, SoundAnalysis b, double result) {
+      long order = offered++;
+      boolean keepBest = bestCount > 0 && (best.size() < bestCount || result >= best.peek().match.result);
+      boolean keepWorst = worstCount > 0 && (worst.size() < worstCount || result < worst.peek().match.result);
+      if (!keepBest && !keepWorst)
+        return;
+
+      Kept kept = new Kept(new CompareResult(a, b, result), order);
+      if (keepBest) {
+        best.add(kept);
+        if (best.size() > bestCount)
+          best.poll();
+      }
+      if (keepWorst) {
+        worst.add(kept);
+        if (worst.size() > worstCount)
+          worst.poll();
+      }
+    }
+
+    // Kept results sorted from most to least similar. A result that is one of both the best and worst is only listed once.
+    public List<CompareResult> getResults() {
+      List<Kept> kept = new ArrayList<>(best.size() + worst.size());
+      kept.addAll(best);
+      for (Kept match : worst)
+        if (!best.contains(match))
+          kept.add(match);
+      kept.sort(WORST_FIRST.reversed());
+
+      List<CompareResult> result = new ArrayList<>(kept.size());
+      for (Kept match : kept)
+        result.add(match.match);
+      return result;
+    }
+  }
+
+  // Receives results from compareAllPairs, possibly from several threads at once.
+  public interface PairSink {
+    void accept(int a, int b, double result);
+  }
+
   public static List<CompareResult> compareAnalyses(List<? extends SoundAnalysis> analyses) {
-    List<CompareResult> result = new ArrayList<>(analyses.size() * analyses.size() / 2);
+    int size = analyses.size();
+    CompareResult[] pairs = new CompareResult[(int) SimilarityMatrix.pairCount(size)];
 
     // gather results
-    for (int i = 0; i < analyses.size(); i++)
-      for (int j = i+1; j < analyses.size(); j++)
-        result.add(new CompareResult(analyses.get(i), analyses.get(j)));
+    compareAllPairs(analyses, (a, b, match) -> pairs[SimilarityMatrix.index(size, a, b)] =
+        new CompareResult(analyses.get(a), analyses.get(b), match));
+    List<CompareResult> result = new ArrayList<>(Arrays.asList(pairs));
 
     // sort results
     result.sort(Comparator.comparingDouble(o -> o.result));
@@ -54,41 +143,151 @@ public class AnalysisCompare {
     return result;
   }
 
+  // Compares every pair of analyses a < b on the AnalysisPool and gives the results to sink in no particular order.
+  // The comparison matrix is split into square tiles so both sides of a tile stay in cache while it's compared.
+  public static void compareAllPairs(List<? extends SoundAnalysis> analyses, PairSink sink) {
+    int size = analyses.size();
+    int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] tileRows = new int[blocks * (blocks + 1) / 2], tileColumns = new int[tileRows.length];
+    for (int row = 0, tile = 0; row < blocks; row++) {
+      for (int column = row; column < blocks; column++, tile++) {
+        tileRows[tile] = row;
+        tileColumns[tile] = column;
+      }
+    }
+
+    AnalysisPool.forEach(tileRows.length, tile -> {
+      int rowStart = tileRows[tile] * BLOCK_SIZE, rowEnd = Math.min(rowStart + BLOCK_SIZE, size);
+      int columnStart = tileColumns[tile] * BLOCK_SIZE, columnEnd = Math.min(columnStart + BLOCK_SIZE, size);
+      for (int a = rowStart; a < rowEnd; a++) {
+        SoundAnalysis analysis = analyses.get(a);
+        for (int b = Math.max(columnStart, a + 1); b < columnEnd; b++)
+          sink.accept(a, b, analysis.compareTo(analyses.get(b)));
+      }
+    });
+  }
+
+  // The bestCount most and worstCount least similar songs in compareTo to query, sorted by match value.
+  // Unlike compareAnalyses, only the kept results are stored.
+  public static List<CompareResult> topMatches(SoundAnalysis query, List<? extends SoundAnalysis> compareTo,
+      int bestCount, int worstCount) {
+    TopMatches result = new TopMatches(bestCount, worstCount);
+    for (SoundAnalysis soundAnalysis : compareTo)
+      result.offer(query, soundAnalysis);
+    return result.getResults();
+  }
+
+  // The bestCount most and worstCount least similar pairs of analyses, sorted by match value.
+  public static List<CompareResult> topMatches(List<? extends SoundAnalysis> analyses, int bestCount, int worstCount) {
+    TopMatches result = new TopMatches(bestCount, worstCount);
+    for (int i = 0; i < analyses.size(); i++)
+      for (int j = i+1; j < analyses.size(); j++)
+        result.offer(analyses.get(i), analyses.get(j));
+    return result.getResults();
+  }
+
   // Filter list so only the most and least similar match to each song is displayed.
-  // Reduces the results size from 0.5n^2 down to 2n at most.
+  // Reduces the results size from 0.5n^2 down to 2n at most. matches must be sorted like compareAnalyses sorts them,
+  // and the result keeps their order.
   public static List<CompareResult> mostAndLeastSimilar(List<CompareResult> matches) {
-    Set<CompareResult> result = new HashSet<>();
+    // first and last match each song is in
+    Map<SoundAnalysis, CompareResult> most = new HashMap<>(), least = new HashMap<>();
+    for (CompareResult match : matches) {
+      most.putIfAbsent(match.a, match);
+      most.putIfAbsent(match.b, match);
+      least.put(match.a, match);
+      least.put(match.b, match);
+    }
 
-    // get set of sound analyses
-    Set<SoundAnalysis> set = new HashSet<>();
+    Set<CompareResult> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+    kept.addAll(most.values());
+    kept.addAll(least.values());
+    List<CompareResult> result = new ArrayList<>(kept.size());
     for (CompareResult match : matches)
-      set.add(match.a);
+      if (kept.contains(match))
+        result.add(match);
+    return result;
+  }
 
-    // gather results
-    for (SoundAnalysis song : set) {
-      // get the most similar match
-      for (int i = 0; i < matches.size(); i++) {
-        if (matches.get(i).a.equals(song) || matches.get(i).b.equals(song)) {
-          result.add(matches.get(i));
-          break;
-        }
-      }
+  // Same as mostAndLeastSimilar(compareAnalyses(analyses)), but keeps only each song's most and least similar
+  // match while comparing, so the pairs are never stored or sorted.
+  public static List<CompareResult> compareMostAndLeastSimilar(List<? extends SoundAnalysis> analyses) {
+    ExtremeMatches extremes = new ExtremeMatches(analyses.size());
+    compareAllPairs(analyses, extremes);
+    return extremes.getResults(analyses);
+  }
+
+
+  // Each song's most and least similar match, kept in primitive arrays.
+  // Ties are broken the same way as scanning the sorted compareAnalyses list: the most similar match is the
+  // tied pair compared last, and the least similar match is the tied pair compared first.
+  private static class ExtremeMatches implements PairSink {
+    private final double[] most, least;
+    private final int[] mostMatch, leastMatch;
+    // Songs are updated from several threads, so each one is guarded by one of these.
+    private final Object[] locks = new Object[64];
 
-      // get the least similar match
-      for (int i = matches.size() - 1; i >= 0; i--) {
-        if (matches.get(i).a.equals(song) || matches.get(i).b.equals(song)) {
-          result.add(matches.get(i));
-          break;
+    private ExtremeMatches(int size) {
+      most = new double[size];
+      least = new double[size];
+      mostMatch = new int[size];
+      leastMatch = new int[size];
+      Arrays.fill(mostMatch, -1);
+      Arrays.fill(leastMatch, -1);
+      for (int i = 0; i < locks.length; i++)
+        locks[i] = new Object();
+    }
+
+    @Override
+    public void accept(int a, int b, double result) {
+      update(a, b, result);
+      update(b, a, result);
+    }
+
+    private void update(int song, int other, double result) {
+      synchronized (locks[song % locks.length]) {
+        if (mostMatch[song] < 0 || result > most[song] || (result == most[song] && other > mostMatch[song])) {
+          most[song] = result;
+          mostMatch[song] = other;
+        }
+        if (leastMatch[song] < 0 || result < least[song] || (result == least[song] && other < leastMatch[song])) {
+          least[song] = result;
+          leastMatch[song] = other;
         }
       }
     }
 
-    // sort results
-    List<CompareResult> resultList = new ArrayList<>(result);
-    resultList.sort(Comparator.comparingDouble(o -> o.result));
-    Collections.reverse(resultList);
+    // Sorted like compareAnalyses sorts pairs: ties list the pair that comes later in row-major order first.
+    private List<CompareResult> getResults(List<? extends SoundAnalysis> analyses) {
+      // a pair can be the match of both of its songs, so each pair is only listed once
+      long size = analyses.size();
+      long[] pairs = new long[2 * mostMatch.length];
+      double[] matches = new double[pairs.length];
+      int count = 0;
+      for (int song = 0; song < mostMatch.length; song++) {
+        if (mostMatch[song] < 0)
+          continue;
+        matches[count] = most[song];
+        pairs[count++] = (Math.min(song, mostMatch[song]) * size) + Math.max(song, mostMatch[song]);
+        matches[count] = least[song];
+        pairs[count++] = (Math.min(song, leastMatch[song]) * size) + Math.max(song, leastMatch[song]);
+      }
 
-    return resultList;
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++)
+        order[i] = i;
+      Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> matches[i]).thenComparingLong(i -> pairs[i])
+          .reversed());
+      List<CompareResult> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        if (i > 0 && pairs[order[i]] == pairs[order[i - 1]])
+          continue;
+        long pair = pairs[order[i]];
+        result.add(new CompareResult(analyses.get((int) (pair / size)), analyses.get((int) (pair % size)),
+            matches[order[i]]));
+      }
+      return result;
+    }
   }
 
   // Test running compareAnalyses with RandomAnalysis and print results.
@@ -0,0 +1,294 @@
+package Backend.Analysis;
+
+import Backend.Algorithm.SimpleCharacteristics;
+import Backend.Algorithm.Transform;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every saved SimpleAnalysis in one memory-mapped file, so comparing a song against the library doesn't list
+ * the SavedAnalysis folder and parse a file per song. Opening only maps the file, and features are read
+ * straight out of the mapping.
+ * The file is little-endian:
+ * - Header: "ASMRLB" magic, 2-byte version, 4-byte number of frequency bins, 4-byte record capacity,
+ *   4-byte record count, 8-byte string table length, padded to 32 bytes.
+ * - Records: capacity slots of the same size. Each is a 4-byte stereo flag, 4-byte string table offset, then
+ *   left volume, rise and fall and right volume, rise and fall as blocks of 8-byte doubles.
+ * - String table: the file path and name of each record, each a 4-byte length followed by UTF-8 bytes.
+ * Records and strings are only appended. Replacing a record's file path appends new strings and leaves the old
+ * ones unused. When the record slots are full, the string table is moved back to make room for twice as many.
+ * How to use: Call getSaved() for the library in the SavedAnalysis folder, or open() for any other file.
+ */
+public class AnalysisLibrary implements Closeable {
+  //region Fields and public methods
+  private static final byte[] MAGIC = "ASMRLB".getBytes(StandardCharsets.US_ASCII);
+  private static final short VERSION = 1;
+  private static final int HEADER_LENGTH = 32, CAPACITY_OFFSET = 12, COUNT_OFFSET = 16, STRINGS_OFFSET = 20;
+  private static final int BINS = Transform.FREQUENCY_RESOLUTION;
+  private static final int RECORD_LENGTH = 8 + (Double.BYTES * BINS * 6);
+  private static final int INITIAL_CAPACITY = 64;
+  private static final String SAVED_NAME = "library.asmr", SAVED_EXTENSION = ".simple";
+  private static AnalysisLibrary saved;
+
+  private final Path path;
+  private final FileChannel channel;
+  private MappedByteBuffer map;
+  private int capacity, count;
+  private long stringsLength;
+  // Record index of each name, filled the first time it's needed.
+  private Map<String, Integer> names;
+
+  private AnalysisLibrary(Path path) throws IOException {
+    this.path = path;
+    boolean exists = Files.exists(path);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      if (!exists || channel.size() == 0) {
+        capacity = INITIAL_CAPACITY;
+        remap(stringsStart());
+        map.put(0, MAGIC);
+        map.putShort(MAGIC.length, VERSION);
+        map.putInt(MAGIC.length + 2, BINS);
+        writeHeader();
+      } else {
+        remap(channel.size());
+        readHeader();
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // Opens the library file at path, or creates an empty one.
+  public static AnalysisLibrary open(String path) throws IOException {
+    return new AnalysisLibrary(Paths.get(path));
+  }
+
+  // The library in the SavedAnalysis folder. The first time it's created, every .simple file already
+  // in the folder is added to it.
+  public static synchronized AnalysisLibrary getSaved() throws IOException {
+    if (saved != null)
+      return saved;
+
+    String folder = System.getProperty("user.dir") + "\\SavedAnalysis";
+    Files.createDirectories(Paths.get(folder));
+    String libraryPath = folder + "\\" + SAVED_NAME;
+    boolean exists = new File(libraryPath).exists();
+    saved = open(libraryPath);
+    if (!exists) {
+      System.out.println("AnalysisLibrary: Adding saved analyses to " + libraryPath);
+      for (SimpleAnalysis analysis : SimpleAnalysis.getAllSavedAnalyses()) {
+        String name = analysis.getFileName();
+        saved.add(analysis.getFilePath(), name.substring(0, name.length() - SAVED_EXTENSION.length()),
+            analysis.getCharacteristics());
+      }
+    }
+    return saved;
+  }
+
+  // Number of records.
+  public synchronized int size() {
+    return count;
+  }
+
+  public synchronized String getFilePath(int record) {
+    checkRecord(record);
+    return readString(stringOffset(record));
+  }
+
+  public synchronized String getName(int record) {
+    checkRecord(record);
+    long offset = stringOffset(record);
+    return readString(offset + 4 + map.getInt((int) offset));
+  }
+
+  public synchronized boolean isStereo(int record) {
+    checkRecord(record);
+    return map.getInt(recordOffset(record)) != 0;
+  }
+
+  // Read-only view of a record's features in the mapped file, in the order SimpleCharacteristics.putFeatures
+  // writes them. Mono records only use the first half.
+  public synchronized DoubleBuffer getFeatures(int record) {
+    checkRecord(record);
+    return map.slice(recordOffset(record) + 8, RECORD_LENGTH - 8).order(ByteOrder.LITTLE_ENDIAN)
+        .asDoubleBuffer().asReadOnlyBuffer();
+  }
+
+  public SimpleAnalysis get(int record) {
+    return new SimpleAnalysis(getFilePath(record), getName(record),
+        SimpleCharacteristics.getFeatures(getFeatures(record), isStereo(record)));
+  }
+
+  public List<SimpleAnalysis> getAll() {
+    int size = size();
+    List<SimpleAnalysis> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      result.add(get(i));
+    return result;
+  }
+
+  // Record with the given name, or -1 if there isn't one.
+  public synchronized int indexOf(String name) {
+    return getNames().getOrDefault(name, -1);
+  }
+
+  public int add(SimpleAnalysis analysis) throws IOException {
+    return add(analysis.getFilePath(), analysis.getFileName(), analysis.getCharacteristics());
+  }
+
+  // Appends a record and returns its index. If there's already a record with this name, its file path and
+  // features are replaced instead. A new file path is appended to the string table, leaving the old one unused.
+  public synchronized int add(String filePath, String name, SimpleCharacteristics characteristics)
+      throws IOException {
+    int record = indexOf(name);
+    if (record < 0) {
+      if (count == capacity)
+        grow();
+      record = count;
+      map.putInt(recordOffset(record) + 4, appendStrings(filePath, name));
+    } else if (!getFilePath(record).equals(filePath)) {
+      map.putInt(recordOffset(record) + 4, appendStrings(filePath, name));
+      writeHeader();
+    }
+
+    map.putInt(recordOffset(record), characteristics.isStereo() ? 1 : 0);
+    characteristics.putFeatures(map.slice(recordOffset(record) + 8, RECORD_LENGTH - 8)
+        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+
+    if (record == count) {
+      count++;
+      getNames().put(name, record);
+      writeHeader();
+    }
+    return record;
+  }
+
+  // Writes changes to disk and closes the file.
+  @Override
+  public synchronized void close() throws IOException {
+    if (!channel.isOpen())
+      return;
+    map.force();
+    channel.close();
+    if (this == saved)
+      saved = null;
+  }
+  //endregion
+
+  //region Private methods
+  private void readHeader() throws IOException {
+    if (map.capacity() < HEADER_LENGTH)
+      throw new IOException("AnalysisLibrary: " + path.getFileName() + " is too short");
+    for (int i = 0; i < MAGIC.length; i++)
+      if (map.get(i) != MAGIC[i])
+        throw new IOException("AnalysisLibrary: " + path.getFileName() + " is not an analysis library");
+    short version = map.getShort(MAGIC.length);
+    if (version != VERSION)
+      throw new IOException("AnalysisLibrary: Unsupported library version " + version);
+    int bins = map.getInt(MAGIC.length + 2);
+    if (bins != BINS)
+      throw new IOException("AnalysisLibrary: Library has " + bins + " frequency bins, expected " + BINS);
+
+    capacity = map.getInt(CAPACITY_OFFSET);
+    count = map.getInt(COUNT_OFFSET);
+    stringsLength = map.getLong(STRINGS_OFFSET);
+    if (count < 0 || count > capacity || stringsStart() + stringsLength > map.capacity())
+      throw new IOException("AnalysisLibrary: " + path.getFileName() + " is corrupted");
+  }
+
+  private void writeHeader() {
+    map.putInt(CAPACITY_OFFSET, capacity);
+    map.putLong(STRINGS_OFFSET, stringsLength);
+    map.putInt(COUNT_OFFSET, count);
+  }
+
+  // Maps the first size bytes of the file, making it longer if needed.
+  private void remap(long size) throws IOException {
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("AnalysisLibrary: Library can't be larger than 2GB");
+    if (map != null)
+      map.force();
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    map.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // Doubles the record slots, moving the string table after them.
+  private void grow() throws IOException {
+    byte[] strings = new byte[(int) stringsLength];
+    map.get((int) stringsStart(), strings);
+    capacity *= 2;
+    remap(Math.max(map.capacity(), stringsStart() + stringsLength));
+    map.put((int) stringsStart(), strings);
+    writeHeader();
+  }
+
+  // Adds a file path and name to the end of the string table and returns their offset in it.
+  private int appendStrings(String filePath, String name) throws IOException {
+    byte[] pathBytes = filePath.getBytes(StandardCharsets.UTF_8);
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    long stringOffset = stringsLength;
+    long end = stringsStart() + stringOffset + 8 + pathBytes.length + nameBytes.length;
+    if (end > map.capacity())
+      remap(Math.max(end, 2L * map.capacity()));
+    int position = (int) (stringsStart() + stringOffset);
+    map.putInt(position, pathBytes.length);
+    map.put(position + 4, pathBytes);
+    map.putInt(position + 4 + pathBytes.length, nameBytes.length);
+    map.put(position + 8 + pathBytes.length, nameBytes);
+    stringsLength = end - stringsStart();
+    return (int) stringOffset;
+  }
+
+  private Map<String, Integer> getNames() {
+    if (names == null) {
+      names = new HashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        long offset = stringOffset(i);
+        names.put(readString(offset + 4 + map.getInt((int) offset)), i);
+      }
+    }
+    return names;
+  }
+
+  private long stringsStart() {
+    return HEADER_LENGTH + ((long) capacity * RECORD_LENGTH);
+  }
+
+  private void checkRecord(int record) {
+    if (record < 0 || record >= count)
+      throw new IndexOutOfBoundsException("AnalysisLibrary: No record " + record + ", size is " + count);
+  }
+
+  private int recordOffset(int record) {
+    return HEADER_LENGTH + (record * RECORD_LENGTH);
+  }
+
+  private long stringOffset(int record) {
+    return stringsStart() + map.getInt(recordOffset(record) + 4);
+  }
+
+  private String readString(long offset) {
+    int length = map.getInt((int) offset);
+    byte[] bytes = new byte[length];
+    map.get((int) offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  //endregion
+}
@@ -0,0 +1,78 @@
+package Backend.Analysis;
+
+import java.io.IOException;
+
+/**
+ * Times SimpleAnalysis comparisons: the original recursive sums, compareTo on prefix sums, and
+ * compareEmbeddings on float vectors. Also prints how far compareTo and compareEmbeddings are from the
+ * original results.
+ * How to use: Run main with audio files as arguments, or none to use the test resource .wav files.
+ */
+public class CompareBenchmark {
+  private static final int WARMUP_ROUNDS = 2000, TIMED_ROUNDS = 5000;
+  private static final String[] DEFAULT_FILES = {"src/test/resource/tone_1000hz.wav",
+      "src/test/resource/white_noise.wav", "src/test/resource/white_noise_2.wav",
+      "src/test/resource/pink_noise.wav", "src/test/resource/pink_noise_quiet.wav"};
+  // Results are added here so the JIT can't skip the comparisons.
+  private static volatile double sink;
+
+  private interface Comparison {
+    double compare(SimpleAnalysis a, SimpleAnalysis b);
+  }
+
+  public static void main(String[] args) {
+    String[] files = (args.length > 0) ? args : DEFAULT_FILES;
+    SimpleAnalysis[] analyses = new SimpleAnalysis[files.length];
+    try {
+      for (int i = 0; i < files.length; i++)
+        analyses[i] = new SimpleAnalysis(files[i], false, false);
+    } catch (IOException e) {
+      System.out.println("CompareBenchmark: Failed to analyze file - " + e.getMessage());
+      return;
+    }
+
+    Comparison recursive = SimpleAnalysis::recursiveCompare;
+    Comparison prefixSums = SimpleAnalysis::compareTo;
+    Comparison embeddings = (a, b) -> SimpleAnalysis.compareEmbeddings(a.getEmbedding(), 0, b.getEmbedding(), 0);
+
+    System.out.println("CompareBenchmark: Comparing " + analyses.length + " songs to each other");
+    double recursiveTime = time("Recursive sums", recursive, analyses);
+    double prefixTime = time("Prefix sums (compareTo)", prefixSums, analyses);
+    double embeddingTime = time("Embeddings", embeddings, analyses);
+    System.out.println("compareTo speedup: " + (recursiveTime / prefixTime) + "x");
+    System.out.println("compareEmbeddings speedup: " + (recursiveTime / embeddingTime) + "x");
+
+    double prefixDifference = 0.0, embeddingDifference = 0.0;
+    for (SimpleAnalysis a : analyses) {
+      for (SimpleAnalysis b : analyses) {
+        double expected = recursive.compare(a, b);
+        prefixDifference = Math.max(prefixDifference, Math.abs(prefixSums.compare(a, b) - expected));
+        embeddingDifference = Math.max(embeddingDifference, Math.abs(embeddings.compare(a, b) - expected));
+      }
+    }
+    System.out.println("compareTo largest difference: " + prefixDifference);
+    System.out.println("compareEmbeddings largest difference: " + embeddingDifference);
+  }
+
+  // Prints and returns the average microseconds per comparison.
+  private static double time(String name, Comparison comparison, SimpleAnalysis[] analyses) {
+    for (int round = 0; round < WARMUP_ROUNDS; round++)
+      sink += compareAll(comparison, analyses);
+
+    long startTime = System.nanoTime();
+    for (int round = 0; round < TIMED_ROUNDS; round++)
+      sink += compareAll(comparison, analyses);
+    double micros = (System.nanoTime() - startTime) / 1000.0 / TIMED_ROUNDS / (analyses.length * analyses.length);
+
+    System.out.println(name + ": " + micros + " microseconds per comparison");
+    return micros;
+  }
+
+  private static double compareAll(Comparison comparison, SimpleAnalysis[] analyses) {
+    double result = 0.0;
+    for (SimpleAnalysis a : analyses)
+      for (SimpleAnalysis b : analyses)
+        result += comparison.compare(a, b);
+    return result;
+  }
+}
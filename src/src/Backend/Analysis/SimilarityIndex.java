@@ -0,0 +1,425 @@
+package Backend.Analysis;
+
+import Backend.Algorithm.Reader.Channel;
+import Backend.Algorithm.SimpleCharacteristics;
+import Backend.Analysis.AnalysisCompare.CompareResult;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Approximate nearest neighbour search over SimpleAnalysis songs, using a
+ * <a href="https://arxiv.org/abs/1603.09320">hierarchical navigable small world</a> graph.
+ * Each song links to its most similar songs on layer 0, and to fewer, further apart songs on higher layers.
+ * Searches walk down the layers towards the query, so only a small part of the library is compared.
+ * Distance is 1 - compareTo, so results are the same songs an exact search would rank highest, most of the time.
+ * How to use: Call getSaved() for the index of the saved library, which adds any songs saved since it was
+ * last written, then search(song, k). Run main to compare recall and speed against an exact search.
+ */
+public class SimilarityIndex {
+  //region Fields and public methods
+  private static final byte[] MAGIC = "ASMRNN".getBytes(StandardCharsets.US_ASCII);
+  private static final short VERSION = 2;
+  // Links per song on higher layers. Layer 0 has twice as many.
+  private static final int LINKS = 16;
+  // Songs kept while looking for a new song's links. Higher = better links but slower inserts.
+  private static final int CONSTRUCTION_SEARCH = 100;
+  // Default songs kept while searching. Higher = better recall but slower searches.
+  private static final int DEFAULT_SEARCH = 64;
+  private static final double LEVEL_MULTIPLIER = 1.0 / Math.log(LINKS);
+  private static final long SEED = 0x5EED;
+  private static final String SAVED_NAME = "library.hnsw";
+
+  private final List<SimpleAnalysis> songs = new ArrayList<>();
+  // links.get(song)[layer] = linked songs on that layer.
+  private final List<int[][]> links = new ArrayList<>();
+  private int entryPoint = -1, topLayer = -1;
+  // Songs visited by the current search are marked with visitMark.
+  private int[] visited = new int[0];
+  private int visitMark;
+
+  public SimilarityIndex() {
+  }
+
+  // The index of every song in AnalysisLibrary.getSaved(), saved next to it. Songs added to the library since
+  // the index was last saved are inserted. The index is rebuilt if a saved song's name or features no longer
+  // match the library record with the same index, or if the file is corrupted.
+  public static SimilarityIndex getSaved() throws IOException {
+    List<SimpleAnalysis> library = AnalysisLibrary.getSaved().getAll();
+    Path path = Paths.get(System.getProperty("user.dir") + "\\SavedAnalysis\\" + SAVED_NAME);
+    SimilarityIndex result = null;
+    if (Files.exists(path)) {
+      try {
+        result = load(path.toString(), library);
+      } catch (IOException e) {
+        System.out.println("SimilarityIndex: Rebuilding index - " + e.getMessage());
+      }
+    }
+    if (result == null)
+      result = new SimilarityIndex();
+
+    if (result.size() < library.size()) {
+      System.out.println("SimilarityIndex: Adding " + (library.size() - result.size()) + " songs to index");
+      for (int i = result.size(); i < library.size(); i++)
+        result.insert(library.get(i));
+      result.write(path.toString());
+    }
+    return result;
+  }
+
+  // Number of songs.
+  public synchronized int size() {
+    return songs.size();
+  }
+
+  public synchronized SimpleAnalysis get(int song) {
+    return songs.get(song);
+  }
+
+  // Adds a song and returns its index.
+  public synchronized int insert(SimpleAnalysis song) {
+    int node = songs.size();
+    int layer = randomLayer(node);
+    songs.add(song);
+    int[][] nodeLinks = new int[layer + 1][];
+    for (int i = 0; i <= layer; i++)
+      nodeLinks[i] = new int[0];
+    links.add(nodeLinks);
+    if (entryPoint < 0) {
+      entryPoint = node;
+      topLayer = layer;
+      return node;
+    }
+
+    List<Candidate> nearest = List.of(new Candidate(entryPoint, distance(song, entryPoint)));
+    for (int i = topLayer; i > layer; i--)
+      nearest = searchLayer(song, nearest, 1, i);
+    for (int i = Math.min(layer, topLayer); i >= 0; i--) {
+      nearest = searchLayer(song, nearest, CONSTRUCTION_SEARCH, i);
+      int[] selected = selectLinks(nearest, maxLinks(i));
+      nodeLinks[i] = selected;
+      for (int other : selected)
+        addLink(other, node, i);
+    }
+
+    if (layer > topLayer) {
+      entryPoint = node;
+      topLayer = layer;
+    }
+    return node;
+  }
+
+  public List<CompareResult> search(SimpleAnalysis query, int k) {
+    return search(query, k, DEFAULT_SEARCH);
+  }
+
+  // About the k songs most similar to query, sorted by match value. Keeping more songs while searching
+  // finds the exact best songs more often, but compares more songs.
+  public synchronized List<CompareResult> search(SimpleAnalysis query, int k, int searchSize) {
+    if (entryPoint < 0 || k <= 0)
+      return new ArrayList<>();
+    List<Candidate> nearest = List.of(new Candidate(entryPoint, distance(query, entryPoint)));
+    for (int i = topLayer; i > 0; i--)
+      nearest = searchLayer(query, nearest, 1, i);
+    nearest = searchLayer(query, nearest, Math.max(searchSize, k), 0);
+
+    AnalysisCompare.TopMatches result = new AnalysisCompare.TopMatches(k, 0);
+    for (Candidate candidate : nearest)
+      result.offer(query, songs.get(candidate.song), 1.0 - candidate.distance);
+    return result.getResults();
+  }
+
+  // Loads an index written by write. songs must start with the same songs the index was built with, which is
+  // checked with a fingerprint of each song's name and features. Throws IOException if they don't match or the
+  // graph is invalid.
+  public static SimilarityIndex load(String filepath, List<SimpleAnalysis> songs) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filepath))).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      buffer.get(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new IOException("SimilarityIndex: " + filepath + " is not a similarity index");
+      short version = buffer.getShort();
+      if (version != VERSION)
+        throw new IOException("SimilarityIndex: Unsupported index version " + version);
+      int links = buffer.getInt(), count = buffer.getInt();
+      if (links != LINKS)
+        throw new IOException("SimilarityIndex: Index has " + links + " links per song, expected " + LINKS);
+      if (count > songs.size())
+        throw new IOException("SimilarityIndex: Index has " + count + " songs, library has " + songs.size());
+
+      SimilarityIndex result = new SimilarityIndex();
+      result.entryPoint = buffer.getInt();
+      result.topLayer = buffer.getInt();
+      for (int song = 0; song < count; song++) {
+        if (buffer.getInt() != fingerprint(songs.get(song)))
+          throw new IOException("SimilarityIndex: Song " + song + " doesn't match the library");
+        int layers = buffer.getInt() + 1;
+        if (layers != randomLayer(song) + 1)
+          throw new IOException("SimilarityIndex: " + filepath + " is corrupted - song " + song + " has " +
+              layers + " layers");
+        int[][] nodeLinks = new int[layers][];
+        for (int layer = 0; layer < nodeLinks.length; layer++) {
+          nodeLinks[layer] = new int[buffer.getInt()];
+          buffer.asIntBuffer().get(nodeLinks[layer]);
+          buffer.position(buffer.position() + (Integer.BYTES * nodeLinks[layer].length));
+        }
+        result.songs.add(songs.get(song));
+        result.links.add(nodeLinks);
+      }
+      result.checkGraph(filepath);
+      return result;
+    } catch (RuntimeException e) {
+      throw new IOException("SimilarityIndex: " + filepath + " is corrupted - " + e.getMessage());
+    }
+  }
+
+  public synchronized void write(String filepath) throws IOException {
+    int length = MAGIC.length + 2 + (4 * Integer.BYTES);
+    for (int[][] nodeLinks : links) {
+      length += 2 * Integer.BYTES;
+      for (int[] layerLinks : nodeLinks)
+        length += Integer.BYTES * (layerLinks.length + 1);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putInt(LINKS);
+    buffer.putInt(songs.size());
+    buffer.putInt(entryPoint);
+    buffer.putInt(topLayer);
+    for (int song = 0; song < links.size(); song++) {
+      int[][] nodeLinks = links.get(song);
+      buffer.putInt(fingerprint(songs.get(song)));
+      buffer.putInt(nodeLinks.length - 1);
+      for (int[] layerLinks : nodeLinks) {
+        buffer.putInt(layerLinks.length);
+        for (int link : layerLinks)
+          buffer.putInt(link);
+      }
+    }
+    Files.write(Paths.get(filepath), buffer.array());
+  }
+  //endregion
+
+  //region Private methods
+  private static class Candidate {
+    private final int song;
+    private final double distance;
+
+    private Candidate(int song, double distance) {
+      this.song = song;
+      this.distance = distance;
+    }
+  }
+
+  // Checks that the entry point and every link are songs in the index that have the linked layer.
+  private void checkGraph(String filepath) throws IOException {
+    int count = songs.size();
+    boolean valid = (count == 0) ? (entryPoint == -1 && topLayer == -1) :
+        (entryPoint >= 0 && entryPoint < count && topLayer == links.get(entryPoint).length - 1);
+    if (!valid)
+      throw new IOException("SimilarityIndex: " + filepath + " is corrupted - invalid entry point " + entryPoint);
+    for (int song = 0; song < count; song++) {
+      int[][] nodeLinks = links.get(song);
+      if (nodeLinks.length - 1 > topLayer)
+        throw new IOException("SimilarityIndex: " + filepath + " is corrupted - song " + song +
+            " is above the top layer");
+      for (int layer = 0; layer < nodeLinks.length; layer++)
+        for (int link : nodeLinks[layer])
+          if (link < 0 || link >= count || link == song || links.get(link).length <= layer)
+            throw new IOException("SimilarityIndex: " + filepath + " is corrupted - song " + song +
+                " has invalid link " + link + " on layer " + layer);
+    }
+  }
+
+  // CRC32 of a song's name and features, so a loaded index can tell if the library changed under it.
+  private static int fingerprint(SimpleAnalysis song) {
+    SimpleCharacteristics characteristics = song.getCharacteristics();
+    int bins = characteristics.getAverageVolume(Channel.LEFT).length;
+    byte[] name = song.getFileName().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(name.length + 1 + (Double.BYTES * bins * 6))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(name).put((byte) (characteristics.isStereo() ? 1 : 0));
+    DoubleBuffer features = buffer.asDoubleBuffer();
+    characteristics.putFeatures(features);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, name.length + 1 + (Double.BYTES * features.position()));
+    return (int) crc.getValue();
+  }
+
+  // Top layer of a new song, chosen at random with each layer up being about LINKS times less likely.
+  // Only depends on the song's index, so a loaded index grows the same way as the one that was written.
+  private static int randomLayer(int song) {
+    long hash = SEED + (song * 0x9E3779B97F4A7C15L);
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+    hash ^= hash >>> 31;
+    double uniform = (hash >>> 11) * 0x1.0p-53;
+    return (int) (-Math.log(1.0 - uniform) * LEVEL_MULTIPLIER);
+  }
+
+  private double distance(SimpleAnalysis query, int song) {
+    return 1.0 - query.compareTo(songs.get(song));
+  }
+
+  private static int maxLinks(int layer) {
+    return (layer == 0) ? 2 * LINKS : LINKS;
+  }
+
+  // The ef songs nearest to query found by following links on one layer from entryPoints, nearest first.
+  private List<Candidate> searchLayer(SimpleAnalysis query, List<Candidate> entryPoints, int ef, int layer) {
+    if (visited.length < songs.size())
+      visited = Arrays.copyOf(visited, Math.max(songs.size(), 2 * visited.length));
+    if (++visitMark == 0) {
+      Arrays.fill(visited, 0);
+      visitMark = 1;
+    }
+
+    // closest candidate first, and furthest kept result first
+    PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(c -> c.distance));
+    PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(c -> -c.distance));
+    for (Candidate entry : entryPoints) {
+      visited[entry.song] = visitMark;
+      candidates.add(entry);
+      results.add(entry);
+      if (results.size() > ef)
+        results.poll();
+    }
+
+    while (!candidates.isEmpty()) {
+      Candidate closest = candidates.poll();
+      if (results.size() >= ef && closest.distance > results.peek().distance)
+        break;
+      for (int neighbor : links.get(closest.song)[layer]) {
+        if (visited[neighbor] == visitMark)
+          continue;
+        visited[neighbor] = visitMark;
+        double distance = distance(query, neighbor);
+        if (results.size() < ef || distance < results.peek().distance) {
+          Candidate candidate = new Candidate(neighbor, distance);
+          candidates.add(candidate);
+          results.add(candidate);
+          if (results.size() > ef)
+            results.poll();
+        }
+      }
+    }
+
+    List<Candidate> result = new ArrayList<>(results);
+    result.sort(Comparator.comparingDouble(c -> c.distance));
+    return result;
+  }
+
+  // Picks up to max of the candidates (sorted nearest first) to link to. A candidate is skipped if it's nearer
+  // to an already picked song than to the query, so links point in different directions.
+  private int[] selectLinks(List<Candidate> candidates, int max) {
+    int[] result = new int[Math.min(max, candidates.size())];
+    int count = 0;
+    for (Candidate candidate : candidates) {
+      if (count == result.length)
+        break;
+      boolean keep = true;
+      for (int i = 0; i < count && keep; i++)
+        keep = distance(songs.get(candidate.song), result[i]) >= candidate.distance;
+      if (keep)
+        result[count++] = candidate.song;
+    }
+    // fill up with the nearest skipped candidates
+    for (int i = 0; i < candidates.size() && count < result.length; i++) {
+      int song = candidates.get(i).song;
+      boolean picked = false;
+      for (int j = 0; j < count && !picked; j++)
+        picked = result[j] == song;
+      if (!picked)
+        result[count++] = song;
+    }
+    return result;
+  }
+
+  private void addLink(int song, int link, int layer) {
+    int[] oldLinks = links.get(song)[layer];
+    int[] newLinks = Arrays.copyOf(oldLinks, oldLinks.length + 1);
+    newLinks[oldLinks.length] = link;
+    if (newLinks.length > maxLinks(layer)) {
+      SimpleAnalysis analysis = songs.get(song);
+      List<Candidate> candidates = new ArrayList<>(newLinks.length);
+      for (int other : newLinks)
+        candidates.add(new Candidate(other, distance(analysis, other)));
+      candidates.sort(Comparator.comparingDouble(c -> c.distance));
+      newLinks = new int[maxLinks(layer)];
+      for (int i = 0; i < newLinks.length; i++)
+        newLinks[i] = candidates.get(i).song;
+    }
+    links.get(song)[layer] = newLinks;
+  }
+  //endregion
+
+  // Prints recall and search time against an exact search of the saved library.
+  // Optionally pass k in args[0] (10 by default) and the number of query songs in args[1] (100 by default).
+  public static void main(String[] args) {
+    int k = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+    int queries = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+    try {
+      long startTime = System.nanoTime();
+      SimilarityIndex index = getSaved();
+      System.out.println("SimilarityIndex: Loaded " + index.size() + " songs in " +
+          ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
+      report(index, k, queries);
+    } catch (IOException e) {
+      System.out.println("SimilarityIndex: Failed to load saved analyses - " + e.getMessage());
+    }
+  }
+
+  // Prints the recall of search at several search sizes against AnalysisCompare.compareAnalyses.
+  static void report(SimilarityIndex index, int k, int queries) {
+    List<SimpleAnalysis> songs = new ArrayList<>(index.songs);
+    queries = Math.min(queries, songs.size());
+    Random random = new Random(SEED);
+    List<SimpleAnalysis> querySongs = new ArrayList<>(queries);
+    for (int i = 0; i < queries; i++)
+      querySongs.add(songs.get(random.nextInt(songs.size())));
+
+    long startTime = System.nanoTime();
+    List<List<SoundAnalysis>> exact = new ArrayList<>(queries);
+    for (SimpleAnalysis query : querySongs) {
+      List<CompareResult> results = AnalysisCompare.compareAnalyses(List.of(query), songs);
+      List<SoundAnalysis> best = new ArrayList<>(k);
+      for (int i = 0; i < Math.min(k, results.size()); i++)
+        best.add(results.get(i).b);
+      exact.add(best);
+    }
+    double exactMillis = (System.nanoTime() - startTime) / 1000000.0 / queries;
+    System.out.println("Exact search: " + exactMillis + " ms per query");
+
+    for (int searchSize = k; searchSize <= 32 * k; searchSize *= 2) {
+      int found = 0, total = 0;
+      startTime = System.nanoTime();
+      List<List<CompareResult>> results = new ArrayList<>(queries);
+      for (SimpleAnalysis query : querySongs)
+        results.add(index.search(query, k, searchSize));
+      double millis = (System.nanoTime() - startTime) / 1000000.0 / queries;
+      for (int i = 0; i < queries; i++) {
+        for (CompareResult result : results.get(i))
+          if (exact.get(i).contains(result.b))
+            found++;
+        total += exact.get(i).size();
+      }
+      System.out.println("Search size " + searchSize + ": recall " + ((double) found / total) + ", " + millis +
+          " ms per query");
+    }
+  }
+}
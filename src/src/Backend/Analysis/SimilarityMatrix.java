@@ -0,0 +1,67 @@
+package Backend.Analysis;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Match values between every pair of songs in a list, stored as floats in one array holding only the
+ * upper triangle, so n songs take 2n(n-1) bytes.
+ * How to use: Call compute(analyses), then get(a, b) with the indexes of two songs in the list.
+ */
+public class SimilarityMatrix {
+  private final float[] values;
+  private final int size;
+
+  public SimilarityMatrix(int size) {
+    long pairs = pairCount(size);
+    if (pairs > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException("SimilarityMatrix: Too many songs for one matrix - " + size);
+    this.values = new float[(int) pairs];
+    this.size = size;
+  }
+
+  // Compares every pair of analyses in parallel.
+  public static SimilarityMatrix compute(List<? extends SoundAnalysis> analyses) {
+    SimilarityMatrix result = new SimilarityMatrix(analyses.size());
+    int size = result.size;
+    AnalysisCompare.compareAllPairs(analyses, (a, b, match) -> result.values[index(size, a, b)] = (float) match);
+    return result;
+  }
+
+  // Number of songs.
+  public int getSize() {
+    return size;
+  }
+
+  // Match value between songs a and b. Songs match themselves exactly.
+  public float get(int a, int b) {
+    if (a == b)
+      return 1.0f;
+    return values[(a < b) ? index(size, a, b) : index(size, b, a)];
+  }
+
+  // Index of the pair a < b in the upper triangle of a matrix for size songs, row by row.
+  static int index(int size, int a, int b) {
+    if (a < 0 || b >= size || a >= b)
+      throw new IndexOutOfBoundsException("SimilarityMatrix: No pair (" + a + ", " + b + ") for " + size + " songs");
+    return (int) ((((long) a * ((2L * size) - a - 1)) / 2) + (b - a - 1));
+  }
+
+  static long pairCount(int size) {
+    return ((long) size * (size - 1)) / 2;
+  }
+
+  // Times comparing every pair of saved SimpleAnalysis songs.
+  public static void main(String[] args) {
+    try {
+      List<SimpleAnalysis> analyses = AnalysisLibrary.getSaved().getAll();
+      long startTime = System.nanoTime();
+      SimilarityMatrix matrix = compute(analyses);
+      System.out.println("SimilarityMatrix: Compared " + pairCount(matrix.getSize()) + " pairs of " +
+          matrix.getSize() + " songs");
+      System.out.println("Calculation time: " + ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
+    } catch (IOException e) {
+      System.out.println("SimilarityMatrix: Failed to load saved analyses - " + e.getMessage());
+    }
+  }
+}
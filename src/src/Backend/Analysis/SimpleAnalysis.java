@@ -16,7 +16,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Ethan Carnahan
@@ -26,6 +28,8 @@ public class SimpleAnalysis implements SoundAnalysis {
   //region Fields and public methods
   private SimpleCharacteristics characteristics;
   private final String filePath, fileName;
+  private volatile float[] embedding;
+  private volatile double[] prefixSums;
   // Multiplies the power of loudness/dynamics differences on the match result.
   // Lower values = higher match result.
   private static final double LOUDNESS_WEIGHT = 0.00000002, DYNAMICS_WEIGHT = 0.0000002;
@@ -35,6 +39,19 @@ public class SimpleAnalysis implements SoundAnalysis {
   private static final double LOUDNESS_RECURSION = 0.75, DYNAMICS_RECURSION = 0.75;
   // Multiplies arctan bounds from pi/2 to 1.
   private static final double ARCTAN_MULTIPLIER = 2.0 / Math.PI;
+  // Number of most and least similar songs main prints when comparing one song to all saved songs.
+  private static final int PRINTED_MATCHES = 50;
+  // Length of getEmbedding(): loudness, rise and fall of the left channel, then the right channel.
+  public static final int EMBEDDING_LENGTH = 6 * Transform.FREQUENCY_RESOLUTION;
+  private static final SumRanges LOUDNESS_RANGES = new SumRanges(Transform.FREQUENCY_RESOLUTION, LOUDNESS_RECURSION);
+  private static final SumRanges DYNAMICS_RANGES = new SumRanges(Transform.FREQUENCY_RESOLUTION, DYNAMICS_RECURSION);
+
+  // Used by AnalysisLibrary.
+  SimpleAnalysis(String filePath, String fileName, SimpleCharacteristics characteristics) {
+    this.filePath = filePath;
+    this.fileName = fileName;
+    this.characteristics = characteristics;
+  }
 
   // save/load will save a new analysis and load previously analyzed songs.
   public SimpleAnalysis(String filePath, boolean load, boolean save) throws IOException {
@@ -57,7 +74,8 @@ public class SimpleAnalysis implements SoundAnalysis {
     if (load) {
       System.out.println("SimpleAnalysis: Loading analysis for " + fileName);
       try {
-        this.characteristics = SimpleCharacteristics.load(savePath);
+        // Old text analyses are rewritten in the binary format the first time they're loaded.
+        this.characteristics = SimpleCharacteristics.load(savePath, true);
         return;
       } catch (IOException e) {
         System.out.println("SimpleAnalysis: Failed to load file - " + e.getMessage());
@@ -73,13 +91,14 @@ public class SimpleAnalysis implements SoundAnalysis {
       System.out.println("SimpleAnalysis: Saving analysis to " + savePath);
       Files.createDirectories(path.getParent());
       this.characteristics.write(savePath);
+      AnalysisLibrary.getSaved().add(this);
     }
   }
 
   // Gets all .simple analyses saved in SavedAnalysis folder.
   public static List<SimpleAnalysis> getAllSavedAnalyses() throws IOException {
     File saveFolder = new File(System.getProperty("user.dir") + "\\SavedAnalysis");
-    File[] files = saveFolder.listFiles();
+    File[] files = saveFolder.listFiles((folder, name) -> name.endsWith(".simple"));
     if (files == null)
       throw new IOException("SimpleAnalysis: SavedAnalysis is not directory.");
 
@@ -96,34 +115,68 @@ public class SimpleAnalysis implements SoundAnalysis {
       throw new IllegalArgumentException("Incompatible sound analysis types.");
     }
 
-    double[] thisLeftLoudness = this.characteristics.getAverageVolume(Channel.LEFT);
-    double[] thisRightLoudness = this.characteristics.getAverageVolume(Channel.RIGHT);
-    double[] thisLeftRise = this.characteristics.getAverageRise(Channel.LEFT);
-    double[] thisRightRise = this.characteristics.getAverageRise(Channel.RIGHT);
-    double[] thisLeftFall = this.characteristics.getAverageFall(Channel.LEFT);
-    double[] thisRightFall = this.characteristics.getAverageFall(Channel.RIGHT);
-    double[] otherLeftLoudness = otherSimple.characteristics.getAverageVolume(Channel.LEFT);
-    double[] otherRightLoudness = otherSimple.characteristics.getAverageVolume(Channel.RIGHT);
-    double[] otherLeftRise = otherSimple.characteristics.getAverageRise(Channel.LEFT);
-    double[] otherRightRise = otherSimple.characteristics.getAverageRise(Channel.RIGHT);
-    double[] otherLeftFall = otherSimple.characteristics.getAverageFall(Channel.LEFT);
-    double[] otherRightFall = otherSimple.characteristics.getAverageFall(Channel.RIGHT);
-
-    //System.out.println("Comparing " + this.fileName + " to " + otherSimple.fileName);
+    // Mono songs use their one channel as both channels, which compares the same as stereoToMonoCompare.
+    double[] thisSums = this.getPrefixSums(), otherSums = otherSimple.getPrefixSums();
+    int rightOffset = 3 * (Transform.FREQUENCY_RESOLUTION + 1);
+    double leftCompare = prefixCompare(thisSums, 0, otherSums, 0);
+    double rightCompare = prefixCompare(thisSums, rightOffset, otherSums, rightOffset);
+    return (0.5 * leftCompare) + (0.5 * rightCompare);
+  }
 
-    // if both stereo
-    if (thisRightLoudness != null && otherRightLoudness != null)
-      return stereoCompare(thisLeftLoudness, otherLeftLoudness, thisLeftRise, otherLeftRise, thisLeftFall, otherLeftFall,
-          thisRightLoudness, otherRightLoudness, thisRightRise, otherRightRise, thisRightFall, otherRightFall);
-    // if one stereo and one mono
-    if (thisRightLoudness != null)
-      return stereoToMonoCompare(thisLeftLoudness, thisRightLoudness, otherLeftLoudness,
-          thisLeftRise, thisRightRise, otherLeftRise, thisLeftFall, thisRightFall, otherLeftFall);
-    if (otherRightLoudness != null)
-      return stereoToMonoCompare(otherLeftLoudness, otherRightLoudness, thisLeftLoudness,
-          otherLeftRise, otherRightRise, thisLeftRise, otherLeftFall, otherRightFall, thisLeftFall);
-    // if both mono
-    return monoCompare(thisLeftLoudness, otherLeftLoudness, thisLeftRise, otherLeftRise, thisLeftFall, otherLeftFall);
+  // This analysis as one vector for compareEmbeddings. Mono songs use their one channel as both channels,
+  // which compares the same as stereoToMonoCompare.
+  public float[] getEmbedding() {
+    float[] result = embedding;
+    if (result == null) {
+      result = new float[EMBEDDING_LENGTH];
+      int bins = Transform.FREQUENCY_RESOLUTION;
+      Channel right = characteristics.isStereo() ? Channel.RIGHT : Channel.LEFT;
+      putFloats(characteristics.getAverageVolume(Channel.LEFT), result, 0);
+      putFloats(characteristics.getAverageRise(Channel.LEFT), result, bins);
+      putFloats(characteristics.getAverageFall(Channel.LEFT), result, 2 * bins);
+      putFloats(characteristics.getAverageVolume(right), result, 3 * bins);
+      putFloats(characteristics.getAverageRise(right), result, 4 * bins);
+      putFloats(characteristics.getAverageFall(right), result, 5 * bins);
+      embedding = result;
+    }
+    return result;
+  }
+
+  // Same as compareTo, using the embeddings at aOffset in a and bOffset in b.
+  // Embeddings are floats, so results can be about 1e-6 away from compareTo.
+  public static double compareEmbeddings(float[] a, int aOffset, float[] b, int bOffset) {
+    int bins = Transform.FREQUENCY_RESOLUTION;
+    double leftCompare = embeddingCompare(a, aOffset, b, bOffset);
+    double rightCompare = embeddingCompare(a, aOffset + (3 * bins), b, bOffset + (3 * bins));
+    return (0.5 * leftCompare) + (0.5 * rightCompare);
+  }
+
+  // Compares query to each of the results.length embeddings stored one after another in embeddings.
+  public static void compareEmbeddings(float[] query, float[] embeddings, double[] results) {
+    if (embeddings.length < results.length * EMBEDDING_LENGTH)
+      throw new IllegalArgumentException("SimpleAnalysis: Need " + results.length + " embeddings, got " +
+          (embeddings.length / EMBEDDING_LENGTH));
+    for (int i = 0; i < results.length; i++)
+      results[i] = compareEmbeddings(query, 0, embeddings, i * EMBEDDING_LENGTH);
+  }
+
+  // Running sums of loudness, rise and fall of the left, then right channel, each starting at 0 and
+  // FREQUENCY_RESOLUTION + 1 long. Mono songs use their one channel as both channels.
+  private double[] getPrefixSums() {
+    double[] result = prefixSums;
+    if (result == null) {
+      int length = Transform.FREQUENCY_RESOLUTION + 1;
+      Channel right = characteristics.isStereo() ? Channel.RIGHT : Channel.LEFT;
+      result = new double[6 * length];
+      putPrefixSums(characteristics.getAverageVolume(Channel.LEFT), result, 0);
+      putPrefixSums(characteristics.getAverageRise(Channel.LEFT), result, length);
+      putPrefixSums(characteristics.getAverageFall(Channel.LEFT), result, 2 * length);
+      putPrefixSums(characteristics.getAverageVolume(right), result, 3 * length);
+      putPrefixSums(characteristics.getAverageRise(right), result, 4 * length);
+      putPrefixSums(characteristics.getAverageFall(right), result, 5 * length);
+      prefixSums = result;
+    }
+    return result;
   }
 
   public SimpleCharacteristics getCharacteristics() {
@@ -140,6 +193,37 @@ public class SimpleAnalysis implements SoundAnalysis {
   //endregion
 
   //region Private methods
+  // compareTo as it was before prefix sums, calling recursiveSumDifferences on the characteristics.
+  // Kept to check and time compareTo against.
+  static double recursiveCompare(SimpleAnalysis a, SimpleAnalysis b) {
+    double[] thisLeftLoudness = a.characteristics.getAverageVolume(Channel.LEFT);
+    double[] thisRightLoudness = a.characteristics.getAverageVolume(Channel.RIGHT);
+    double[] thisLeftRise = a.characteristics.getAverageRise(Channel.LEFT);
+    double[] thisRightRise = a.characteristics.getAverageRise(Channel.RIGHT);
+    double[] thisLeftFall = a.characteristics.getAverageFall(Channel.LEFT);
+    double[] thisRightFall = a.characteristics.getAverageFall(Channel.RIGHT);
+    double[] otherLeftLoudness = b.characteristics.getAverageVolume(Channel.LEFT);
+    double[] otherRightLoudness = b.characteristics.getAverageVolume(Channel.RIGHT);
+    double[] otherLeftRise = b.characteristics.getAverageRise(Channel.LEFT);
+    double[] otherRightRise = b.characteristics.getAverageRise(Channel.RIGHT);
+    double[] otherLeftFall = b.characteristics.getAverageFall(Channel.LEFT);
+    double[] otherRightFall = b.characteristics.getAverageFall(Channel.RIGHT);
+
+    // if both stereo
+    if (thisRightLoudness != null && otherRightLoudness != null)
+      return stereoCompare(thisLeftLoudness, otherLeftLoudness, thisLeftRise, otherLeftRise, thisLeftFall, otherLeftFall,
+          thisRightLoudness, otherRightLoudness, thisRightRise, otherRightRise, thisRightFall, otherRightFall);
+    // if one stereo and one mono
+    if (thisRightLoudness != null)
+      return stereoToMonoCompare(thisLeftLoudness, thisRightLoudness, otherLeftLoudness,
+          thisLeftRise, thisRightRise, otherLeftRise, thisLeftFall, thisRightFall, otherLeftFall);
+    if (otherRightLoudness != null)
+      return stereoToMonoCompare(otherLeftLoudness, otherRightLoudness, thisLeftLoudness,
+          otherLeftRise, otherRightRise, thisLeftRise, otherLeftFall, otherRightFall, thisLeftFall);
+    // if both mono
+    return monoCompare(thisLeftLoudness, otherLeftLoudness, thisLeftRise, otherLeftRise, thisLeftFall, otherLeftFall);
+  }
+
   // a/b = SimpleAnalysis Objects
   // L/R/F = Loudness/Rise/Fall
   // 1/2 = Left/Right Channels
@@ -185,6 +269,50 @@ public class SimpleAnalysis implements SoundAnalysis {
     return result;
   }
 
+  // monoCompare on one channel of two analyses' prefix sums.
+  private static double prefixCompare(double[] a, int aOffset, double[] b, int bOffset) {
+    int length = Transform.FREQUENCY_RESOLUTION + 1;
+    double loudnessDifference = LOUDNESS_RANGES.sumDifferences(a, aOffset, b, bOffset, LOUDNESS_EXPONENT) *
+        LOUDNESS_WEIGHT;
+    double riseDifference = DYNAMICS_RANGES.sumDifferences(a, aOffset + length, b, bOffset + length,
+        DYNAMICS_EXPONENT) * DYNAMICS_WEIGHT;
+    double fallDifference = DYNAMICS_RANGES.sumDifferences(a, aOffset + (2 * length), b, bOffset + (2 * length),
+        DYNAMICS_EXPONENT) * DYNAMICS_WEIGHT;
+
+    double difference = ARCTAN_MULTIPLIER * Math.atan(loudnessDifference + riseDifference + fallDifference);
+
+    return 1.0 - difference;
+  }
+
+  private static void putPrefixSums(double[] array, double[] result, int offset) {
+    double sum = 0.0;
+    result[offset] = sum;
+    for (int i = 0; i < array.length; i++) {
+      sum += array[i];
+      result[offset + i + 1] = sum;
+    }
+  }
+
+  // monoCompare on one channel of two embeddings.
+  private static double embeddingCompare(float[] a, int aOffset, float[] b, int bOffset) {
+    int bins = Transform.FREQUENCY_RESOLUTION;
+    double loudnessDifference = LOUDNESS_RANGES.sumDifferences(a, aOffset, b, bOffset, LOUDNESS_EXPONENT) *
+        LOUDNESS_WEIGHT;
+    double riseDifference = DYNAMICS_RANGES.sumDifferences(a, aOffset + bins, b, bOffset + bins, DYNAMICS_EXPONENT) *
+        DYNAMICS_WEIGHT;
+    double fallDifference = DYNAMICS_RANGES.sumDifferences(a, aOffset + (2 * bins), b, bOffset + (2 * bins),
+        DYNAMICS_EXPONENT) * DYNAMICS_WEIGHT;
+
+    double difference = ARCTAN_MULTIPLIER * Math.atan(loudnessDifference + riseDifference + fallDifference);
+
+    return 1.0 - difference;
+  }
+
+  private static void putFloats(double[] array, float[] result, int offset) {
+    for (int i = 0; i < array.length; i++)
+      result[offset + i] = (float) array[i];
+  }
+
   private static double sumArray(double[] array, int start, int length) {
     double result = 0.0;
     int end = Math.min(start + length, array.length);
@@ -192,10 +320,69 @@ public class SimpleAnalysis implements SoundAnalysis {
       result += array[i];
     return result;
   }
+
+  // Every range of bins recursiveSumDifferences sums, with the total weight its difference gets. Which ranges
+  // are summed only depends on the number of bins, so the recursion is walked once and comparisons loop over these.
+  private static class SumRanges {
+    private final int[] starts, ends;
+    private final double[] weights;
+
+    private SumRanges(int bins, double rec) {
+      Map<Long, Double> ranges = new LinkedHashMap<>();
+      addRanges(ranges, bins, 0, bins, 1.0, rec);
+      starts = new int[ranges.size()];
+      ends = new int[ranges.size()];
+      weights = new double[ranges.size()];
+      int i = 0;
+      for (Map.Entry<Long, Double> range : ranges.entrySet()) {
+        starts[i] = (int) (range.getKey() / (bins + 1));
+        ends[i] = (int) (range.getKey() % (bins + 1));
+        weights[i++] = range.getValue();
+      }
+    }
+
+    // Follows the same calls as recursiveSumDifferences.
+    private static void addRanges(Map<Long, Double> ranges, int bins, int start, int length, double weight,
+        double rec) {
+      if (length == 0 || start >= bins)
+        return;
+      long key = ((long) start * (bins + 1)) + Math.min(start + length, bins);
+      ranges.merge(key, weight, Double::sum);
+      if (length == 1)
+        return;
+      int nextLength = (int)Math.ceil((double)length / 2.0);
+      for (int i = start; i < nextLength; i += 1)
+        addRanges(ranges, bins, i, nextLength, weight * rec / nextLength, rec);
+    }
+
+    // recursiveSumDifferences using prefix sums of the bins of a and b, starting at aOffset and bOffset.
+    private double sumDifferences(double[] a, int aOffset, double[] b, int bOffset, double exp) {
+      double result = 0.0;
+      for (int range = 0; range < starts.length; range++) {
+        double aSum = a[aOffset + ends[range]] - a[aOffset + starts[range]];
+        double bSum = b[bOffset + ends[range]] - b[bOffset + starts[range]];
+        result += weights[range] * Math.pow(Math.abs(aSum - bSum), exp);
+      }
+      return result;
+    }
+
+    // recursiveSumDifferences over the bins of a and b starting at aOffset and bOffset.
+    private double sumDifferences(float[] a, int aOffset, float[] b, int bOffset, double exp) {
+      double result = 0.0;
+      for (int range = 0; range < starts.length; range++) {
+        double difference = 0.0;
+        for (int i = starts[range]; i < ends[range]; i++)
+          difference += (double) a[aOffset + i] - b[bOffset + i];
+        result += weights[range] * Math.pow(Math.abs(difference), exp);
+      }
+      return result;
+    }
+  }
   //endregion
 
   // Compares each sound file in args to each other and sorts results by match percentage.
-  // Inputting only one song will compare it to all previously scanned songs (including itself).
+  // Inputting only one song will compare it to all previously scanned songs (including itself),
+  // and print the most and least similar ones.
   // Inputting no songs will compare all previously scanned songs.
   public static void main(String[] args) {
     // Load arguments
@@ -213,26 +400,24 @@ public class SimpleAnalysis implements SoundAnalysis {
     long startTime = System.nanoTime();
     if (analyses.size() == 0) {  // No arguments: Compare all saved.
       try {
-        List<SimpleAnalysis> others = getAllSavedAnalyses();
+        List<SimpleAnalysis> others = AnalysisLibrary.getSaved().getAll();
         if (others.size() < 2)
           throw new IllegalStateException("SimpleAnalysis: Need at least two saved analyses to compare.");
-        results = AnalysisCompare.compareAnalyses(others);
-        results = AnalysisCompare.mostAndLeastSimilar(results);
+        results = AnalysisCompare.compareMostAndLeastSimilar(others);
       } catch (IOException | IllegalStateException e) {
         System.out.println("SimpleAnalysis: Failed to load saved analyses - " + e.getMessage());
         System.exit(1);
       }
     } else if (analyses.size() == 1) {  // One argument: Compare one against all saved.
       try {
-        List<SimpleAnalysis> others = getAllSavedAnalyses();
-        results = AnalysisCompare.compareAnalyses(analyses, others);
+        List<SimpleAnalysis> others = AnalysisLibrary.getSaved().getAll();
+        results = AnalysisCompare.topMatches(analyses.get(0), others, PRINTED_MATCHES, PRINTED_MATCHES);
       } catch (IOException e) {
         System.out.println("SimpleAnalysis: Failed to load saved analyses - " + e.getMessage());
         System.exit(1);
       }
     } else {  // Multiple arguments: Compare arguments against each other.
-      results = AnalysisCompare.compareAnalyses(analyses);
-      results = AnalysisCompare.mostAndLeastSimilar(results);
+      results = AnalysisCompare.compareMostAndLeastSimilar(analyses);
     }
     System.out.println("\nCalculation time: " + ((System.nanoTime() - startTime) / 1000000000.0) + " seconds");
 
@@ -0,0 +1,97 @@
+package Backend.Helper;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * One thread pool shared by every analysis stage, so scanning many songs reuses the same threads and
+ * analyzing several songs at once doesn't use more threads than there are cores.
+ * How to use: Call get() and submit tasks to it. Call setParallelism before the first get() to change
+ * the number of threads, or run java with -Dasmr.analysis.threads=N. Call forEach to run a loop on the pool.
+ */
+public class AnalysisPool {
+  private static final String PARALLELISM_PROPERTY = "asmr.analysis.threads";
+  private static int parallelism = Integer.getInteger(PARALLELISM_PROPERTY,
+      Runtime.getRuntime().availableProcessors());
+  private static ForkJoinPool pool;
+
+  public static synchronized ForkJoinPool get() {
+    if (pool == null) {
+      System.out.println("AnalysisPool: Starting " + parallelism + " analysis threads");
+      pool = new ForkJoinPool(parallelism, new NamedThreadFactory(), null, false);
+      Runtime.getRuntime().addShutdownHook(new Thread(AnalysisPool::shutdown, "analysis-pool-shutdown"));
+    }
+    return pool;
+  }
+
+  // Throws IllegalStateException if the pool has already been started.
+  public static synchronized void setParallelism(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("AnalysisPool: Need at least 1 thread, got " + threads);
+    if (pool != null)
+      throw new IllegalStateException("AnalysisPool: Pool already started with " + parallelism + " threads");
+    parallelism = threads;
+  }
+
+  public static synchronized int getParallelism() {
+    return parallelism;
+  }
+
+  // Runs action for every index from 0 to count - 1 on the pool, and returns once all of them are done.
+  // Each index should be a fair amount of work, since each one can become its own task.
+  public static void forEach(int count, IntConsumer action) {
+    if (count > 0)
+      get().invoke(new RangeTask(0, count, action));
+  }
+
+  // Lets running tasks finish, then stops the threads.
+  private static synchronized void shutdown() {
+    if (pool == null)
+      return;
+    pool.shutdown();
+    try {
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int start, end;
+    private final transient IntConsumer action;
+
+    private RangeTask(int start, int end, IntConsumer action) {
+      this.start = start;
+      this.end = end;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start == 1) {
+        action.accept(start);
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(new RangeTask(start, middle, action), new RangeTask(middle, end, action));
+    }
+  }
+
+  // Names threads "analysis-N" so they can be told apart in thread dumps and profilers.
+  private static class NamedThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("analysis-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
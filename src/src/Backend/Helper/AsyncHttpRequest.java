@@ -0,0 +1,140 @@
+package Backend.Helper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Make/receive http requests without blocking, like HttpRequest but returning CompletableFutures.
+ * One HttpClient keeps connections open between requests and uses HTTP/2 when the server supports it.
+ * At most maxRequests requests are sent at once, and the rest wait their turn without holding a thread.
+ * Futures fail with RuntimeException on error responses or IO errors, and IllegalArgumentException on bad Url.
+ * How to use: Call get() for the shared client, or run java with -Dasmr.http.requests=N to change how many
+ * requests it sends at once. Call join() on a future to wait for the response.
+ */
+public class AsyncHttpRequest {
+  private static final String REQUESTS_PROPERTY = "asmr.http.requests";
+  private static final int DEFAULT_REQUESTS = 16;
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  private static AsyncHttpRequest shared;
+
+  private final HttpClient client;
+  private final int maxRequests;
+  // Requests waiting for one of the maxRequests slots, and how many slots are in use.
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+  private int running;
+
+  public AsyncHttpRequest(int maxRequests) {
+    if (maxRequests < 1)
+      throw new IllegalArgumentException("AsyncHttpRequest: Need at least 1 request at a time, got " + maxRequests);
+    this.maxRequests = maxRequests;
+    this.client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .build();
+  }
+
+  public static synchronized AsyncHttpRequest get() {
+    if (shared == null)
+      shared = new AsyncHttpRequest(Integer.getInteger(REQUESTS_PROPERTY, DEFAULT_REQUESTS));
+    return shared;
+  }
+
+  public int getMaxRequests() {
+    return maxRequests;
+  }
+
+  // Used to send GET request for Json.
+  public CompletableFuture<String> getJsonFromUrl(String url, String authorization) {
+    java.net.http.HttpRequest.Builder request = newRequest(url, authorization);
+    if (request == null)
+      return invalidUrl(url);
+    return send(request.GET().build());
+  }
+
+  // Used to send POST request for Json. Use null for contentType or authorization if you don't need them.
+  public CompletableFuture<String> postAndGetJsonFromUrlBody(String url, String body, String contentType,
+      String authorization) {
+    java.net.http.HttpRequest.Builder request = newRequest(url, authorization);
+    if (request == null)
+      return invalidUrl(url);
+    if (contentType != null)
+      request.header("Content-Type", contentType);
+    return send(request.POST(BodyPublishers.ofString(body)).build());
+  }
+
+  // Returns null if url isn't a valid http or https URL.
+  private static java.net.http.HttpRequest.Builder newRequest(String url, String authorization) {
+    java.net.http.HttpRequest.Builder request;
+    try {
+      request = java.net.http.HttpRequest.newBuilder(URI.create(url));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (authorization != null)
+      request.header("Authorization", authorization);
+    return request;
+  }
+
+  private static CompletableFuture<String> invalidUrl(String url) {
+    return CompletableFuture.failedFuture(new IllegalArgumentException("AsyncHttpRequest: Invalid URL - " + url));
+  }
+
+  // Sends request once a slot is free and frees the slot when the response arrives.
+  private CompletableFuture<String> send(java.net.http.HttpRequest request) {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    start(() -> {
+      try {
+        client.sendAsync(request, BodyHandlers.ofString()).whenComplete((response, exception) -> {
+          finish();
+          if (exception != null)
+            result.completeExceptionally(new RuntimeException("AsyncHttpRequest: IOException - " +
+                ((exception instanceof CompletionException) ? exception.getCause() : exception).getMessage()));
+          else
+            complete(result, response);
+        });
+      } catch (RuntimeException e) {
+        finish();
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  private static void complete(CompletableFuture<String> result, HttpResponse<String> response) {
+    if (response.statusCode() >= 400)
+      result.completeExceptionally(new RuntimeException("AsyncHttpRequest: Error response - " + response.body()));
+    else
+      result.complete(response.body());
+  }
+
+  private void start(Runnable request) {
+    synchronized (waiting) {
+      if (running >= maxRequests) {
+        waiting.add(request);
+        return;
+      }
+      running++;
+    }
+    request.run();
+  }
+
+  // Passes the finished request's slot to the next waiting one.
+  private void finish() {
+    Runnable next;
+    synchronized (waiting) {
+      next = waiting.poll();
+      if (next == null)
+        running--;
+    }
+    if (next != null)
+      next.run();
+  }
+}
@@ -45,9 +45,8 @@ public class ParseJson {
           numBounds--;
       }
     }
-    // Array is size 0 or 1.
-    if (result.size() == 0)
-      result.add(array);
+    // Add the last element, or the whole array if it's size 0 or 1.
+    result.add(array.substring(start));
     return result.toArray(new String[0]);
   }
 
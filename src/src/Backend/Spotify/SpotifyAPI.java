@@ -1,8 +1,14 @@
 package Backend.Spotify;
 
 import Backend.Analysis.SpotifyAnalysis;
+import Backend.Helper.AsyncHttpRequest;
 import Backend.Helper.HttpRequest;
 import Backend.Helper.ParseJson;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author Ethan Carnahan, Eric Kumar
@@ -11,6 +17,9 @@ import Backend.Helper.ParseJson;
 public class SpotifyAPI {
 
   private static final String FEATURES_URL = "https://api.spotify.com/v1/audio-features/";
+  private static final String MULTIPLE_FEATURES_URL = "https://api.spotify.com/v1/audio-features?ids=";
+  // Most track IDs Spotify accepts in one audio-features request.
+  private static final int MAX_FEATURES_IDS = 100;
   private static final String USERS_URL = "https://api.spotify.com/v1/users/";
   private static final String CREATE_PLAYLIST_URL = "https://api.spotify.com/v1/users/";
   private static final String VIEW_PLAYLIST_URL = "https://api.spotify.com/v1/playlists/";
@@ -77,27 +86,18 @@ public class SpotifyAPI {
    * @throws RuntimeException if something goes wrong. It could be so many things.
    */
   public static String[] getTrackURLs(String[] trackIds) {
-    String[] result = new String[trackIds.length];
+    if (trackIds.length == 0)
+      return new String[0];
     String accessToken = auth.getAccessCode();
-    StringBuilder url = new StringBuilder(TRACK_URL + "?ids=" + trackIds[0]);
-    for (int i = 1; i < trackIds.length; i++) {
-      url.append(",");
-      url.append(trackIds[i]);
-    }
     String jsonString;
     try {
-      jsonString = HttpRequest.getJsonFromUrl(url.substring(0, url.length()-1), accessToken);
+      jsonString = HttpRequest.getJsonFromUrl(TRACK_URL + "?ids=" + String.join(",", trackIds), accessToken);
     } catch (RuntimeException e) {
       e.printStackTrace();
       throw new RuntimeException("SpotifyAPI: Failed to connect to Spotify - " + e.getMessage());
     }
 
-    String[] tracks = ParseJson.getArray(jsonString, "tracks");
-    for (int i = 0; i < tracks.length; i++) {
-      result[i] = ParseJson.getString(ParseJson.getObject(tracks[i], "external_urls"), "spotify");
-    }
-
-    return result;
+    return parseTrackURLs(jsonString, trackIds.length);
   }
 
   /**
@@ -122,6 +122,84 @@ public class SpotifyAPI {
     return new SpotifyAnalysis(jsonString, trackId);
   }
 
+  /**
+   * Gets Spotify's track analysis of multiple songs, with one request for every 100 songs.
+   *
+   * @param trackIds The random strings after "track/" in the url of a song.
+   * @return Spotify's basic track analysis of each song in the same order, or null for songs Spotify
+   * doesn't have an analysis of.
+   * @throws RuntimeException if something goes wrong. It could be so many things.
+   */
+  public static SpotifyAnalysis[] getTrackFeatures(String[] trackIds) {
+    SpotifyAnalysis[] result = new SpotifyAnalysis[trackIds.length];
+    for (int start = 0; start < trackIds.length; start += MAX_FEATURES_IDS) {
+      int end = Math.min(start + MAX_FEATURES_IDS, trackIds.length);
+
+      // Request track features.
+      String accessToken = auth.getAccessCode();
+      String url = MULTIPLE_FEATURES_URL + String.join(",", Arrays.copyOfRange(trackIds, start, end));
+      String jsonString;
+      try {
+        jsonString = HttpRequest.getJsonFromUrl(url, accessToken);
+      } catch (RuntimeException e) {
+        throw new RuntimeException("SpotifyAPI: Failed to connect to Spotify - " + e.getMessage());
+      }
+
+      parseTrackFeatures(jsonString, trackIds, start, end, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Gets the Spotify URL of multiple songs without waiting for Spotify to respond.
+   *
+   * @param trackIds The random strings after "track/" in the url of a song.
+   * @return Spotify URL of the specified songs, or a RuntimeException if something goes wrong.
+   */
+  public static CompletableFuture<String[]> getTrackURLsAsync(String[] trackIds) {
+    if (trackIds.length == 0)
+      return CompletableFuture.completedFuture(new String[0]);
+    String url = TRACK_URL + "?ids=" + String.join(",", trackIds);
+    return getAsync(url)
+        .thenApply(jsonString -> parseTrackURLs(jsonString, trackIds.length));
+  }
+
+  /**
+   * Gets Spotify's track analysis of a song without waiting for Spotify to respond.
+   *
+   * @param trackId The random string after "track/" in the url of a song.
+   * @return Spotify's basic track analysis, or a RuntimeException if something goes wrong.
+   */
+  public static CompletableFuture<SpotifyAnalysis> getTrackFeaturesAsync(String trackId) {
+    return getAsync(FEATURES_URL + trackId)
+        .thenApply(jsonString -> new SpotifyAnalysis(jsonString, trackId));
+  }
+
+  /**
+   * Gets Spotify's track analysis of multiple songs without waiting for Spotify to respond.
+   * Sends one request for every 100 songs, all at the same time.
+   *
+   * @param trackIds The random strings after "track/" in the url of a song.
+   * @return Spotify's basic track analysis of each song in the same order, or null for songs Spotify
+   * doesn't have an analysis of. Completes with a RuntimeException if something goes wrong.
+   */
+  public static CompletableFuture<SpotifyAnalysis[]> getTrackFeaturesAsync(String[] trackIds) {
+    SpotifyAnalysis[] result = new SpotifyAnalysis[trackIds.length];
+    if (trackIds.length == 0)
+      return CompletableFuture.completedFuture(result);
+    CompletableFuture<String> accessToken = accessTokenAsync();
+    List<CompletableFuture<Void>> requests = new ArrayList<>();
+    for (int start = 0; start < trackIds.length; start += MAX_FEATURES_IDS) {
+      int chunkStart = start, chunkEnd = Math.min(start + MAX_FEATURES_IDS, trackIds.length);
+      String url = MULTIPLE_FEATURES_URL + String.join(",", Arrays.copyOfRange(trackIds, chunkStart, chunkEnd));
+      requests.add(accessToken.thenCompose(token -> connect(AsyncHttpRequest.get().getJsonFromUrl(url, token)))
+          .thenAccept(jsonString -> parseTrackFeatures(jsonString, trackIds, chunkStart, chunkEnd, result)));
+    }
+
+    return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).thenApply(done -> result);
+  }
+
   /**
    * Creates a playlist from a list of songs
    *
@@ -157,10 +235,57 @@ public class SpotifyAPI {
    */
 
   public static String[] randomSong(int num) {
-    String[] spotifyIds = new String[num - 1];
+    String accessToken = auth.getAccessCode();
+    String responseString;
+    try {
+      responseString = HttpRequest.getJsonFromUrl(randomSongUrl(num), accessToken);
+      return parseRandomSongs(responseString, num);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      throw new RuntimeException("SpotifyAPI: Failed to connect to Spotify - " + e.getMessage());
+    }
+  }
+
+  /**
+   * Fetches random songs from Spotify without waiting for Spotify to respond.
+   *
+   * @return The IDs of num random songs from Spotify, or a RuntimeException if something goes wrong.
+   */
+  public static CompletableFuture<String[]> randomSongAsync(int num) {
+    return getAsync(randomSongUrl(num))
+        .thenApply(responseString -> parseRandomSongs(responseString, num));
+  }
+
+  //endregion
+
+  //region Private methods
+
+  // Sends a GET request once there is an access code.
+  private static CompletableFuture<String> getAsync(String url) {
+    return accessTokenAsync().thenCompose(token -> connect(AsyncHttpRequest.get().getJsonFromUrl(url, token)));
+  }
+
+  // getAccessCode can wait on the user to log in or on a refresh request, so it never runs on the calling thread.
+  private static CompletableFuture<String> accessTokenAsync() {
+    return CompletableFuture.supplyAsync(auth::getAccessCode);
+  }
+
+  // Parses each element of an audio-features response for trackIds[start, end) into result.
+  // Spotify returns null for unknown songs.
+  private static void parseTrackFeatures(String jsonString, String[] trackIds, int start, int end,
+      SpotifyAnalysis[] result) {
+    String[] features = ParseJson.getArray(jsonString, "audio_features");
+    if (features.length != end - start)
+      throw new RuntimeException("SpotifyAPI: Expected " + (end - start) + " track analyses but got " +
+          features.length);
+    for (int i = 0; i < features.length; i++)
+      if (!features[i].equals("null"))
+        result[start + i] = new SpotifyAnalysis(features[i], trackIds[start + i]);
+  }
 
+  // Search URL for num songs matching a random one-letter query.
+  private static String randomSongUrl(int num) {
     String song = "";
-    String accessToken = auth.getAccessCode();
     // A list of all characters that can be chosen.
     String characters = "abcdefghijklmnopqrstuvwxyz";
 
@@ -175,34 +300,37 @@ public class SpotifyAPI {
     }
     System.out.println("SpotifyAPI: Getting " + num + " random songs using query " + song);
 
-    String responseString;
-    try {
-      String url = SEARCH_SONG_URL + song
-          + "&type=track"
-          + "&limit="+num;
-
-      responseString = HttpRequest.getJsonFromUrl(url, accessToken);
-      String tracks = ParseJson.getObject(responseString, "tracks");
-      String[] items = ParseJson.getArray(tracks, "items");
-      for (int i = 0; i < num - 1; i++) {
-
-        //System.out.println("Track: " + track);
-        //System.out.println("Items:" + Arrays.toString(items));
-
-        String id = ParseJson.getString(items[i],"id");
-        spotifyIds[i] = id;
-//      responseString = HttpRequest.getJsonFromUrl(SEARCH_TRACK_URL + id, accessToken);
-//      spotifyLink = ParseJson.getString(ParseJson.getObject(responseString, "external_urls"), "spotify");
-        //System.out.println("Random song Link: " + spotifyLink);
-      }
+    return SEARCH_SONG_URL + song
+        + "&type=track"
+        + "&limit=" + num;
+  }
 
-    } catch (RuntimeException e) {
-      e.printStackTrace();
-      throw new RuntimeException("SpotifyAPI: Failed to connect to Spotify - " + e.getMessage());
-    }
+  // Gets the IDs of the first num songs in a search response.
+  private static String[] parseRandomSongs(String responseString, int num) {
+    String[] spotifyIds = new String[num];
+    String tracks = ParseJson.getObject(responseString, "tracks");
+    String[] items = ParseJson.getArray(tracks, "items");
+    for (int i = 0; i < num; i++)
+      spotifyIds[i] = ParseJson.getString(items[i], "id");
     return spotifyIds;
   }
 
+  // Gets the Spotify URL of each song in a tracks response.
+  private static String[] parseTrackURLs(String jsonString, int count) {
+    String[] result = new String[count];
+    String[] tracks = ParseJson.getArray(jsonString, "tracks");
+    for (int i = 0; i < tracks.length; i++)
+      result[i] = ParseJson.getString(ParseJson.getObject(tracks[i], "external_urls"), "spotify");
+    return result;
+  }
+
+  // Adds the same message to failed requests as the methods that wait for Spotify.
+  private static CompletableFuture<String> connect(CompletableFuture<String> request) {
+    return request.exceptionallyCompose(e -> CompletableFuture.failedFuture(new RuntimeException(
+        "SpotifyAPI: Failed to connect to Spotify - " +
+        ((e instanceof CompletionException) ? e.getCause() : e).getMessage())));
+  }
+
   //endregion
 
 }
\ No newline at end of file
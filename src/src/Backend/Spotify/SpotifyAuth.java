@@ -93,7 +93,7 @@ public class SpotifyAuth {
   /**
    * @return A valid access code to put in the "Authorization" header of Spotify API requests.
    */
-  public String getAccessCode() {
+  public synchronized String getAccessCode() {
     // Load AccessCode from local storage.
     if (accessCode == null) {
       try {
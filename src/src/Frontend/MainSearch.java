@@ -15,6 +15,8 @@ import java.awt.*;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  *
@@ -171,53 +173,83 @@ public class MainSearch extends javax.swing.JFrame {
      */
     private void suggestButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_suggestButtonActionPerformed
         suggestButton.setText("Working...");
+        suggestButton.setEnabled(false);
         try {
-            // Get user analysis.
-            List<SoundAnalysis> userAnalysis = new ArrayList<>();
-            userAnalysis.add(SpotifyAPI.getTrackFeatures(id));
+            // Get user analysis while finding songs to compare with.
+            CompletableFuture<SpotifyAnalysis> userRequest = SpotifyAPI.getTrackFeaturesAsync(id);
 
             // Get N random songs to compare with.
-            List<SoundAnalysis> comparisonAnalyses = new ArrayList<>(numberOfComparisonSongs);
-            String[] comparisonIds = SpotifyAPI.randomSong(numberOfComparisonSongs);
-            for (String id : comparisonIds)
-                comparisonAnalyses.add(SpotifyAPI.getTrackFeatures(id));
+            CompletableFuture<SpotifyAnalysis[]> comparisonRequest =
+                    SpotifyAPI.randomSongAsync(numberOfComparisonSongs)
+                            .thenCompose(SpotifyAPI::getTrackFeaturesAsync);
 
-            // Compare songs and print results.
-            List<CompareResult> results = AnalysisCompare.compareAnalyses(userAnalysis, comparisonAnalyses);
+            // Compare songs, then get the URLs of the results.
+            CompletableFuture<List<CompareResult>> resultRequest = userRequest.thenCombine(comparisonRequest,
+                    (userAnalysis, comparisons) -> {
+                        List<SoundAnalysis> comparisonAnalyses = new ArrayList<>(comparisons.length);
+                        for (SpotifyAnalysis analysis : comparisons)
+                            if (analysis != null)
+                                comparisonAnalyses.add(analysis);
+                        return AnalysisCompare.topMatches(userAnalysis, comparisonAnalyses,
+                                numberOfComparisonSongs, 0);
+                    });
+            CompletableFuture<String[]> urlRequest = resultRequest.thenCompose(results -> {
+                String[] resultIds = new String[results.size()];
+                for (int i = 0; i < results.size(); i++)
+                    resultIds[i] = ((SpotifyAnalysis) results.get(i).b).getTrackId();
+                return SpotifyAPI.getTrackURLsAsync(resultIds);
+            });
 
-            String[] resultIds = new String[results.size()];
-            for (int i = 0; i < results.size(); i++)
-                resultIds[i] = ((SpotifyAnalysis) results.get(i).b).getTrackId();
-            resultURLs= SpotifyAPI.getTrackURLs(resultIds);
+            // Show results on the event thread once everything has arrived.
+            urlRequest.whenComplete((urls, e) -> SwingUtilities.invokeLater(() -> {
+                if (e != null)
+                    showError((e instanceof CompletionException) ? e.getCause() : e);
+                else
+                    showResults(resultRequest.join(), urls);
+            }));
+        } catch (RuntimeException e) {
+            showError(e);
+        }
+    }//GEN-LAST:event_suggestButtonActionPerformed
 
-            for (int i = 0; i < results.size(); i++) {
-                String matchPercent = percentFormat.format(results.get(i).result);
-                System.out.println(resultURLs[i] + " = " + matchPercent);
-            }
+    /**
+     * Update songList within ScrollPanel with the matches and their URLs, ordered by highest match.
+     */
+    private void showResults(List<CompareResult> results, String[] urls) {
+        resultURLs = urls;
+        for (int i = 0; i < results.size(); i++) {
+            String matchPercent = percentFormat.format(results.get(i).result);
+            System.out.println(resultURLs[i] + " = " + matchPercent);
+        }
 
-            // DefaultListModel object to update the list representing songs
-            DefaultListModel lm = new DefaultListModel();
-            // iterate through each url result and append the match percentage
-            for (int i = 0; i < resultURLs.length; i++) {
-                String matchPercent = percentFormat.format(results.get(i).result);
-                String combined = resultURLs[i] +  ", " + matchPercent;
-                // add appended string to our DefaultListModel
-                lm.add(i, combined);
-            }
-            // set the current ListModel as our updated DefaultListModel
-            songList.setModel(lm);
-            // update the frame
-            this.revalidate();
-            this.repaint();
-            
-        } catch (RuntimeException e) {
-            errorLabel.setVisible(true);
-            e.printStackTrace();
-            System.out.println("MainSearch: Invalid ID - " + e.getMessage());
+        // DefaultListModel object to update the list representing songs
+        DefaultListModel lm = new DefaultListModel();
+        // iterate through each url result and append the match percentage
+        for (int i = 0; i < resultURLs.length; i++) {
+            String matchPercent = percentFormat.format(results.get(i).result);
+            String combined = resultURLs[i] +  ", " + matchPercent;
+            // add appended string to our DefaultListModel
+            lm.add(i, combined);
         }
+        // set the current ListModel as our updated DefaultListModel
+        songList.setModel(lm);
+        // update the frame
+        this.revalidate();
+        this.repaint();
+        resetSuggestButton();
+    }
+
+    private void showError(Throwable e) {
+        errorLabel.setVisible(true);
+        e.printStackTrace();
+        System.out.println("MainSearch: Invalid ID - " + e.getMessage());
+        resetSuggestButton();
+    }
+
+    private void resetSuggestButton() {
         suggestButton.setText("Suggest Songs");
-        
-    }//GEN-LAST:event_suggestButtonActionPerformed
+        suggestButton.setEnabled(true);
+    }
 
     /**
      * Updates the trackId to the text inputted in idInput field
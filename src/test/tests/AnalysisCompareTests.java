@@ -0,0 +1,111 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import Backend.Analysis.AnalysisCompare;
+import Backend.Analysis.AnalysisCompare.CompareResult;
+import Backend.Analysis.SimilarityMatrix;
+import Backend.Analysis.SoundAnalysis;
+import Backend.Analysis.SpotifyAnalysis;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.*;
+
+public class AnalysisCompareTests {
+
+  // Passing requirement: Top matches are the first and last results of the full sorted comparison.
+  @Test
+  public void testTopMatches() {
+    List<SoundAnalysis> analyses = generateAnalyses(60);
+    SoundAnalysis query = analyses.get(0);
+
+    List<CompareResult> all = AnalysisCompare.compareAnalyses(List.of(query), analyses);
+    List<CompareResult> top = AnalysisCompare.topMatches(query, analyses, 5, 3);
+    assertMatches(all, top, 5, 3);
+
+    all = AnalysisCompare.compareAnalyses(analyses);
+    top = AnalysisCompare.topMatches(analyses, 10, 10);
+    assertMatches(all, top, 10, 10);
+
+    // Asking for more matches than there are gives every match once.
+    top = AnalysisCompare.topMatches(query, analyses, 50, 50);
+    assertMatches(AnalysisCompare.compareAnalyses(List.of(query), analyses), top, analyses.size(), 0);
+  }
+
+  // Passing requirement: Tied matches are listed in the same order as the full sorted comparison,
+  // so results don't depend on hash order.
+  @Test
+  public void testTies() {
+    List<SoundAnalysis> analyses = generateAnalyses(20);
+    // equal copies of the first 3 songs
+    for (int i = 0; i < 10; i++)
+      analyses.addAll(generateAnalyses(20).subList(0, 3));
+    SoundAnalysis query = analyses.get(5);
+
+    List<CompareResult> all = AnalysisCompare.compareAnalyses(List.of(query), analyses);
+    List<CompareResult> top = AnalysisCompare.topMatches(query, analyses, 12, 12);
+    for (int i = 0; i < 12; i++) {
+      assertSame(all.get(i).b, top.get(i).b);
+      assertSame(all.get(all.size() - 12 + i).b, top.get(12 + i).b);
+    }
+
+    List<CompareResult> expected = AnalysisCompare.mostAndLeastSimilar(AnalysisCompare.compareAnalyses(analyses));
+    List<CompareResult> actual = AnalysisCompare.compareMostAndLeastSimilar(analyses);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i).a, actual.get(i).a);
+      assertSame(expected.get(i).b, actual.get(i).b);
+    }
+  }
+
+  // Passing requirement: Every pair in the matrix matches compareTo, across several tiles.
+  @Test
+  public void testSimilarityMatrix() {
+    List<SoundAnalysis> analyses = generateAnalyses(100);
+    SimilarityMatrix matrix = SimilarityMatrix.compute(analyses);
+    assertEquals(100, matrix.getSize());
+    for (int i = 0; i < analyses.size(); i++)
+      for (int j = 0; j < analyses.size(); j++)
+        assertEquals((float) analyses.get(i).compareTo(analyses.get(j)), matrix.get(i, j), 1e-6f);
+  }
+
+  // Passing requirement: Comparing straight to the most and least similar matches gives the same pairs
+  // as filtering the full sorted comparison, including for the last song.
+  @Test
+  public void testMostAndLeastSimilar() {
+    List<SoundAnalysis> analyses = generateAnalyses(70);
+    List<CompareResult> expected = AnalysisCompare.mostAndLeastSimilar(AnalysisCompare.compareAnalyses(analyses));
+    List<CompareResult> actual = AnalysisCompare.compareMostAndLeastSimilar(analyses);
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).result, actual.get(i).result);
+      assertEquals(expected.get(i).a, actual.get(i).a);
+      assertEquals(expected.get(i).b, actual.get(i).b);
+    }
+    SoundAnalysis last = analyses.get(analyses.size() - 1);
+    assertTrue(actual.stream().anyMatch(match -> match.b == last));
+  }
+
+  private static void assertMatches(List<CompareResult> all, List<CompareResult> top, int best, int worst) {
+    assertEquals(best + worst, top.size());
+    for (int i = 0; i < best; i++)
+      assertEquals(all.get(i).result, top.get(i).result);
+    for (int i = 0; i < worst; i++)
+      assertEquals(all.get(all.size() - worst + i).result, top.get(best + i).result);
+  }
+
+  private static List<SoundAnalysis> generateAnalyses(int count) {
+    Random random = new Random(count);
+    List<SoundAnalysis> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+      result.add(new SpotifyAnalysis(random.nextDouble(), random.nextDouble(), random.nextDouble(),
+          random.nextDouble(), random.nextDouble(), random.nextDouble(), random.nextDouble(), random.nextDouble(),
+          random.nextDouble(), 1 + random.nextInt(1000), random.nextInt(12),
+          random.nextInt(2), 1 + random.nextInt(8), ""));
+    return result;
+  }
+}
@@ -0,0 +1,58 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import Backend.Algorithm.Normalizer;
+import Backend.Algorithm.Reader;
+import Backend.Algorithm.Reader.Channel;
+import Backend.Algorithm.SimpleCharacteristics;
+import Backend.Algorithm.Transform;
+import Backend.Analysis.AnalysisLibrary;
+import Backend.Analysis.SimpleAnalysis;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.*;
+
+public class AnalysisLibraryTests {
+
+  // Passing requirement: Records read back the same after the library grows and is reopened,
+  // and adding an existing name replaces its file path and features.
+  @Test
+  public void testAddAndReopen() throws IOException {
+    SimpleCharacteristics stereo = new SimpleCharacteristics(
+        new Normalizer(new Transform(Reader.readFile("src/test/resource/tone_1000hz.wav"))));
+    SimpleCharacteristics mono = new SimpleCharacteristics(
+        new Normalizer(new Transform(Reader.readFile("src/test/resource/white_noise.wav"))));
+    Path file = Files.createTempFile("library", ".asmr");
+    Files.delete(file);
+    int songs = 150;
+
+    try {
+      try (AnalysisLibrary library = AnalysisLibrary.open(file.toString())) {
+        for (int i = 0; i < songs; i++)
+          library.add("music/song" + i + ".wav", "song" + i + ".wav", (i % 2 == 0) ? stereo : mono);
+        assertEquals(1, library.add("other/song1.wav", "song1.wav", stereo));
+      }
+
+      try (AnalysisLibrary library = AnalysisLibrary.open(file.toString())) {
+        assertEquals(songs, library.size());
+        assertEquals(77, library.indexOf("song77.wav"));
+        for (int i = 0; i < songs; i++) {
+          SimpleAnalysis analysis = library.get(i);
+          SimpleCharacteristics expected = (i % 2 == 0 || i == 1) ? stereo : mono;
+          assertEquals(((i == 1) ? "other" : "music") + "/song" + i + ".wav", analysis.getFilePath());
+          assertEquals("song" + i + ".wav", analysis.getFileName());
+          for (Channel channel : new Channel[] {Channel.LEFT, Channel.RIGHT}) {
+            assertArrayEquals(expected.getAverageVolume(channel), analysis.getCharacteristics().getAverageVolume(channel));
+            assertArrayEquals(expected.getAverageRise(channel), analysis.getCharacteristics().getAverageRise(channel));
+            assertArrayEquals(expected.getAverageFall(channel), analysis.getCharacteristics().getAverageFall(channel));
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
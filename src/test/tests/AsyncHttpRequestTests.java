@@ -0,0 +1,78 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import Backend.Helper.AsyncHttpRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.*;
+
+public class AsyncHttpRequestTests {
+  private static final int REQUESTS = 20, MAX_REQUESTS = 3;
+
+  // Passing requirement: Every response arrives with the right body, error responses fail,
+  // and the server never sees more than MAX_REQUESTS requests at once.
+  @Test
+  public void testStubServer() throws IOException {
+    AtomicInteger running = new AtomicInteger(), mostRunning = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    ExecutorService serverThreads = Executors.newFixedThreadPool(REQUESTS);
+    server.setExecutor(serverThreads);
+    server.createContext("/echo", exchange -> {
+      mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      running.decrementAndGet();
+      String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      respond(exchange, 200, "{\"path\":\"" + exchange.getRequestURI() + "\",\"auth\":\"" +
+          exchange.getRequestHeaders().getFirst("Authorization") + "\",\"body\":\"" + body + "\"}");
+    });
+    server.createContext("/missing", exchange -> respond(exchange, 404, "not found"));
+    server.start();
+    String url = "http://localhost:" + server.getAddress().getPort();
+
+    try {
+      AsyncHttpRequest http = new AsyncHttpRequest(MAX_REQUESTS);
+      List<CompletableFuture<String>> responses = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++)
+        responses.add(http.getJsonFromUrl(url + "/echo?id=" + i, "Bearer token"));
+      for (int i = 0; i < REQUESTS; i++)
+        assertEquals("{\"path\":\"/echo?id=" + i + "\",\"auth\":\"Bearer token\",\"body\":\"\"}",
+            responses.get(i).join());
+      assertTrue(mostRunning.get() <= MAX_REQUESTS, "Too many requests at once: " + mostRunning.get());
+
+      assertEquals("{\"path\":\"/echo\",\"auth\":\"null\",\"body\":\"a=b\"}",
+          http.postAndGetJsonFromUrlBody(url + "/echo", "a=b", "application/x-www-form-urlencoded", null).join());
+      CompletableFuture<String> missing = http.getJsonFromUrl(url + "/missing", null);
+      assertThrows(CompletionException.class, missing::join);
+      CompletableFuture<String> invalid = http.getJsonFromUrl("not a url", null);
+      assertThrows(CompletionException.class, invalid::join);
+    } finally {
+      server.stop(0);
+      serverThreads.shutdown();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+    exchange.close();
+  }
+}
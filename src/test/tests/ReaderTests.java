@@ -0,0 +1,88 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import Backend.Algorithm.Reader;
+import Backend.Algorithm.Reader.Channel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import org.junit.jupiter.api.*;
+
+public class ReaderTests {
+
+  // Passing requirement: Memory-mapped .wav samples match the samples decoded by AudioSystem.
+  @Test
+  public void testMonoWav() throws IOException, UnsupportedAudioFileException {
+    String file = "src/test/resource/white_noise.wav";
+    Reader reader = Reader.readFile(file);
+    short[][] expected = decodeWithAudioSystem(file);
+
+    assertEquals(Reader.Mode.MONO, reader.getMode());
+    assertEquals(44100, reader.getSampleRate());
+    assertArrayEquals(expected[0], reader.getChannel(Channel.LEFT));
+    assertNull(reader.getChannel(Channel.RIGHT));
+  }
+
+  // Passing requirement: Stereo .wav samples are de-interleaved into the correct channels.
+  @Test
+  public void testStereoWav() throws IOException, UnsupportedAudioFileException {
+    String file = "src/test/resource/tone_1000hz.wav";
+    Reader reader = Reader.readFile(file);
+    short[][] expected = decodeWithAudioSystem(file);
+
+    assertEquals(Reader.Mode.STEREO, reader.getMode());
+    assertEquals(expected[0].length, reader.getLength());
+    assertArrayEquals(expected[0], reader.getChannel(Channel.LEFT));
+    assertArrayEquals(expected[1], reader.getChannel(Channel.RIGHT));
+  }
+
+  // Passing requirement: A data chunk with its size left unset (0 or 0xFFFFFFFF) reads to the end of the file.
+  @Test
+  public void testUnsetDataSize() throws IOException {
+    String file = "src/test/resource/white_noise.wav";
+    short[] expected = Reader.readFile(file).getChannel(Channel.LEFT);
+    byte[] bytes = Files.readAllBytes(Paths.get(file));
+    int data = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("data");
+
+    for (int size : new int[] {0, 0xFFFFFFFF}) {
+      ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(data + 4, size);
+      Path copy = Files.createTempFile("unset_size", ".wav");
+      try {
+        Files.write(copy, bytes);
+        assertArrayEquals(expected, Reader.readFile(copy.toString()).getChannel(Channel.LEFT));
+      } finally {
+        Files.deleteIfExists(copy);
+      }
+    }
+  }
+
+  private static short[][] decodeWithAudioSystem(String file) throws IOException, UnsupportedAudioFileException {
+    AudioInputStream stream = AudioSystem.getAudioInputStream(new File(file));
+    int numChannels = stream.getFormat().getChannels();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    stream.transferTo(bytes);
+    stream.close();
+
+    byte[] data = bytes.toByteArray();
+    int length = data.length / (2 * numChannels);
+    short[][] result = new short[numChannels][length];
+    for (int i = 0; i < length; i++)
+      for (int c = 0; c < numChannels; c++) {
+        int index = 2 * ((i * numChannels) + c);
+        result[c][i] = (short) ((data[index] & 0xFF) | (data[index + 1] << 8));
+      }
+    return result;
+  }
+}
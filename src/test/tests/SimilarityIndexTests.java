@@ -0,0 +1,123 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import Backend.Algorithm.SimpleCharacteristics;
+import Backend.Analysis.AnalysisCompare;
+import Backend.Analysis.AnalysisCompare.CompareResult;
+import Backend.Analysis.AnalysisLibrary;
+import Backend.Analysis.SimilarityIndex;
+import Backend.Analysis.SimpleAnalysis;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.*;
+
+public class SimilarityIndexTests {
+
+  // Passing requirement: Searches find nearly all of the exact best matches, and a written index
+  // gives the same results after loading it and inserting more songs.
+  @Test
+  public void testSearch() throws IOException {
+    Path libraryFile = Files.createTempFile("library", ".asmr");
+    Path indexFile = Files.createTempFile("library", ".hnsw");
+    Files.delete(libraryFile);
+    try (AnalysisLibrary library = AnalysisLibrary.open(libraryFile.toString())) {
+      Random random = new Random(1);
+      for (int song = 0; song < 300; song++) {
+        double[] features = new double[360];
+        for (int i = 0; i < features.length; i++)
+          features[i] = ((i % 180 < 60) ? 60 : 3) * (0.5 + random.nextDouble());
+        library.add("song" + song, "song" + song, SimpleCharacteristics.getFeatures(DoubleBuffer.wrap(features), true));
+      }
+      List<SimpleAnalysis> songs = library.getAll();
+
+      SimilarityIndex index = new SimilarityIndex();
+      for (SimpleAnalysis song : songs.subList(0, 250))
+        index.insert(song);
+      index.write(indexFile.toString());
+      SimilarityIndex loaded = SimilarityIndex.load(indexFile.toString(), songs);
+      for (SimpleAnalysis song : songs.subList(250, 300)) {
+        index.insert(song);
+        loaded.insert(song);
+      }
+      assertEquals(300, loaded.size());
+
+      int found = 0, total = 0;
+      for (SimpleAnalysis query : songs.subList(0, 300)) {
+        if (query.getFileName().hashCode() % 5 != 0)
+          continue;
+        List<CompareResult> exact = AnalysisCompare.compareAnalyses(List.of(query), songs).subList(0, 5);
+        List<CompareResult> approximate = index.search(query, 5);
+        List<CompareResult> reloaded = loaded.search(query, 5);
+        for (int i = 0; i < approximate.size(); i++)
+          assertEquals(approximate.get(i).b, reloaded.get(i).b);
+        for (CompareResult result : approximate)
+          if (exact.stream().anyMatch(match -> match.b == result.b))
+            found++;
+        total += exact.size();
+      }
+      assertTrue(found >= 0.9 * total, "Recall " + ((double) found / total));
+    } finally {
+      Files.deleteIfExists(libraryFile);
+      Files.deleteIfExists(indexFile);
+    }
+  }
+
+  // Passing requirement: Loading fails if a song's features were replaced, the library is in a different order,
+  // or a link points past the last song, so getSaved rebuilds the index instead of using a stale graph.
+  @Test
+  public void testStale() throws IOException {
+    Path libraryFile = Files.createTempFile("library", ".asmr");
+    Path indexFile = Files.createTempFile("library", ".hnsw");
+    Files.delete(libraryFile);
+    try (AnalysisLibrary library = AnalysisLibrary.open(libraryFile.toString())) {
+      Random random = new Random(2);
+      for (int song = 0; song < 21; song++)
+        library.add("song" + song, "song" + song, randomCharacteristics(random));
+      List<SimpleAnalysis> songs = library.getAll();
+      SimilarityIndex index = new SimilarityIndex();
+      for (SimpleAnalysis song : songs.subList(0, 20))
+        index.insert(song);
+      index.write(indexFile.toString());
+      assertEquals(20, SimilarityIndex.load(indexFile.toString(), songs).size());
+
+      List<SimpleAnalysis> reversed = new ArrayList<>(songs);
+      Collections.reverse(reversed);
+      assertThrows(IOException.class, () -> SimilarityIndex.load(indexFile.toString(), reversed));
+
+      byte[] bytes = Files.readAllBytes(indexFile);
+      // header, then song 0's fingerprint, top layer and number of layer 0 links before its first link
+      ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(36, 20);
+      Path corruptFile = Files.createTempFile("corrupt", ".hnsw");
+      try {
+        Files.write(corruptFile, bytes);
+        assertThrows(IOException.class, () -> SimilarityIndex.load(corruptFile.toString(), songs));
+      } finally {
+        Files.deleteIfExists(corruptFile);
+      }
+
+      library.add("song3", "song3", randomCharacteristics(random));
+      assertThrows(IOException.class, () -> SimilarityIndex.load(indexFile.toString(), library.getAll()));
+    } finally {
+      Files.deleteIfExists(libraryFile);
+      Files.deleteIfExists(indexFile);
+    }
+  }
+
+  private static SimpleCharacteristics randomCharacteristics(Random random) {
+    double[] features = new double[360];
+    for (int i = 0; i < features.length; i++)
+      features[i] = ((i % 180 < 60) ? 60 : 3) * (0.5 + random.nextDouble());
+    return SimpleCharacteristics.getFeatures(DoubleBuffer.wrap(features), true);
+  }
+}
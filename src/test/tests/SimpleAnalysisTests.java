@@ -44,6 +44,21 @@ public class SimpleAnalysisTests {
     assertEquals(a.compareTo(b), b.compareTo(a), zeroErrorBound);
   }
 
+  // Passing Requirement: Comparing embeddings gives the same match result as compareTo, for stereo and mono songs.
+  @Test
+  public void testEmbedding() throws IOException {
+    String[] files = {"src/test/resource/tone_1000hz.wav", "src/test/resource/white_noise.wav",
+        "src/test/resource/pink_noise.wav", "src/test/resource/white_noise_2.wav"};
+    SimpleAnalysis[] analyses = new SimpleAnalysis[files.length];
+    for (int i = 0; i < files.length; i++)
+      analyses[i] = new SimpleAnalysis(files[i], false, false);
+
+    for (SimpleAnalysis a : analyses)
+      for (SimpleAnalysis b : analyses)
+        assertEquals(a.compareTo(b), SimpleAnalysis.compareEmbeddings(a.getEmbedding(), 0, b.getEmbedding(), 0),
+            0.000001);
+  }
+
   // Passing Requirement: Same sound with reversed polarity has ~100% match result.
   @Test
   public void testPolarity() throws IOException {
@@ -0,0 +1,89 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import Backend.Algorithm.Normalizer;
+import Backend.Algorithm.Reader;
+import Backend.Algorithm.Reader.Channel;
+import Backend.Algorithm.SimpleCharacteristics;
+import Backend.Algorithm.Transform;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.*;
+
+public class SimpleCharacteristicsTests {
+
+  private SimpleCharacteristics analyze(String filepath) throws IOException {
+    return new SimpleCharacteristics(new Normalizer(new Transform(Reader.readFile(filepath))));
+  }
+
+  private void assertSame(SimpleCharacteristics expected, SimpleCharacteristics actual) {
+    for (Channel channel : new Channel[] {Channel.LEFT, Channel.RIGHT}) {
+      assertArrayEquals(expected.getAverageVolume(channel), actual.getAverageVolume(channel));
+      assertArrayEquals(expected.getAverageRise(channel), actual.getAverageRise(channel));
+      assertArrayEquals(expected.getAverageFall(channel), actual.getAverageFall(channel));
+    }
+  }
+
+  // Passing requirement: Loading a written file gives back exactly the same values.
+  @Test
+  public void testBinaryRoundTrip() throws IOException {
+    Path file = Files.createTempFile("characteristics", ".simple");
+    try {
+      for (String audio : new String[] {"src/test/resource/tone_1000hz.wav", "src/test/resource/white_noise.wav"}) {
+        SimpleCharacteristics characteristics = analyze(audio);
+        characteristics.write(file.toString());
+        assertSame(characteristics, SimpleCharacteristics.load(file.toString()));
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  // Passing requirement: Old text files load the same values, and are rewritten as binary when migrating.
+  @Test
+  public void testTextMigration() throws IOException {
+    Path file = Files.createTempFile("characteristics", ".simple");
+    try {
+      SimpleCharacteristics characteristics = analyze("src/test/resource/tone_1000hz.wav");
+      List<String> lines = new ArrayList<>();
+      lines.add(characteristics.getAverageVolume(Channel.RIGHT) != null ? "Stereo" : "Mono");
+      for (Channel channel : new Channel[] {Channel.LEFT, Channel.RIGHT}) {
+        if (characteristics.getAverageVolume(channel) == null)
+          continue;
+        for (double[] array : new double[][] {characteristics.getAverageVolume(channel),
+            characteristics.getAverageRise(channel), characteristics.getAverageFall(channel)})
+          for (double value : array)
+            lines.add(String.valueOf(value));
+      }
+      Files.write(file, lines);
+
+      assertSame(characteristics, SimpleCharacteristics.load(file.toString(), true));
+      assertEquals("ASMRSC", new String(Files.readAllBytes(file), 0, 6, StandardCharsets.US_ASCII));
+      assertSame(characteristics, SimpleCharacteristics.load(file.toString()));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  // Passing requirement: A file with a changed byte fails to load.
+  @Test
+  public void testChecksum() throws IOException {
+    Path file = Files.createTempFile("characteristics", ".simple");
+    try {
+      analyze("src/test/resource/white_noise.wav").write(file.toString());
+      byte[] bytes = Files.readAllBytes(file);
+      bytes[bytes.length / 2] ^= 1;
+      Files.write(file, bytes);
+      assertThrows(IOException.class, () -> SimpleCharacteristics.load(file.toString()));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
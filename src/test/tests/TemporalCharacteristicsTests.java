@@ -0,0 +1,61 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import Backend.Algorithm.Normalizer;
+import Backend.Algorithm.Reader;
+import Backend.Algorithm.Reader.Channel;
+import Backend.Algorithm.Spectrogram;
+import Backend.Algorithm.TemporalCharacteristics;
+import Backend.Algorithm.TemporalCharacteristics.TempoEngine;
+import Backend.Algorithm.Transform;
+import java.io.IOException;
+import org.junit.jupiter.api.*;
+
+public class TemporalCharacteristicsTests {
+
+  // Passing requirement: Correlation matches sum(bin A volume change * bin B volume change k samples ahead)
+  // divided by (number of changes * bin A average volume).
+  @Test
+  public void testCorrelation() throws IOException {
+    Normalizer normalizer = new Normalizer(new Transform(Reader.readFile("src/test/resource/pink_noise.wav")));
+    TemporalCharacteristics characteristics = new TemporalCharacteristics(normalizer);
+    Spectrogram channel = normalizer.getNormalized(Channel.LEFT);
+    double[] averageVolume = characteristics.getAverageVolume(Channel.LEFT);
+    double[][][] correlation = characteristics.getCorrelation(Channel.LEFT);
+
+    int length = channel.getLength();
+    for (int binA = 0; binA < Transform.FREQUENCY_RESOLUTION; binA += 7) {
+      for (int binB = 0; binB < Transform.FREQUENCY_RESOLUTION; binB += 5) {
+        for (int k = 0; k < correlation[binA][binB].length; k++) {
+          double expected = 0.0;
+          for (int i = 1; i < length - k; i++) {
+            double a = channel.get(i, binA) - channel.get(i - 1, binA);
+            double b = channel.get(i + k, binB) - channel.get(i + k - 1, binB);
+            expected += a * b;
+          }
+          expected /= (length - k - 1) * averageVolume[binA];
+          assertEquals(expected, correlation[binA][binB][k], 1e-9 * Math.max(1.0, Math.abs(expected)));
+        }
+      }
+    }
+  }
+
+  // Passing requirement: Both tempo engines put peak rates on the same scale, from 0.0 to 1.0 for the best match.
+  @Test
+  public void testPeakRateScale() throws IOException {
+    Normalizer normalizer = new Normalizer(new Transform(Reader.readFile("src/test/resource/pink_noise.wav")));
+    for (TempoEngine tempoEngine : TempoEngine.values()) {
+      double[][] peakRates = new TemporalCharacteristics(normalizer, tempoEngine).getPeakRates(Channel.LEFT);
+      double bestMatch = 0.0;
+      for (double[] bin : peakRates)
+        for (double match : bin)
+          if (!Double.isNaN(match)) {
+            assertTrue(match >= 0.0 && match <= 1.0, tempoEngine + " match out of range: " + match);
+            bestMatch = Math.max(bestMatch, match);
+          }
+      assertEquals(1.0, bestMatch, 1e-12);
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package tests;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import Backend.Algorithm.Reader;
 import Backend.Algorithm.Reader.Channel;
@@ -114,4 +117,86 @@ public class TransformTests {
           (Transform.frequencyAtBin(i)) + " is outside error bound (1 +- " + errorBound + ")");
     }
   }
+
+  // Passing requirement: Streaming the audio through the transform gives the same result as reading it all first.
+  // Both test files are a whole number of frames long, so the frames line up exactly.
+  @Test
+  public void testStreamingTransform() throws IOException {
+    for (String file : new String[]{"src/test/resource/tone_1000hz.wav", "src/test/resource/pink_noise.wav"}) {
+      Transform expected = new Transform(Reader.readFile(file));
+      Transform actual;
+      try (Reader.Stream stream = Reader.openStream(file)) {
+        actual = new Transform(stream);
+      }
+
+      for (Channel channel : Channel.values()) {
+        float[][] expectedAmplitudes = expected.getFrequencyAmplitudes(channel);
+        float[][] actualAmplitudes = actual.getFrequencyAmplitudes(channel);
+        if (expectedAmplitudes == null) {
+          assertNull(actualAmplitudes);
+          continue;
+        }
+        assertEquals(expectedAmplitudes.length, actualAmplitudes.length, "Incorrect duration of transform.");
+        for (int i = 0; i < expectedAmplitudes.length; i++)
+          assertArrayEquals(expectedAmplitudes[i], actualAmplitudes[i], 0.001f);
+      }
+    }
+  }
+
+  // Passing requirement: The sparse kernel engine is within SPARSE_KERNEL_TOLERANCE of the direct engine.
+  @Test
+  public void testSparseKernelTransform() throws IOException {
+    Reader reader = Reader.readFile("src/test/resource/pink_noise.wav");
+    float[][] expected = new Transform(reader, Transform.Engine.DIRECT).getFrequencyAmplitudes(Channel.LEFT);
+    float[][] actual = new Transform(reader, Transform.Engine.SPARSE_KERNEL).getFrequencyAmplitudes(Channel.LEFT);
+
+    assertEquals(expected.length, actual.length, "Incorrect duration of transform.");
+    for (int i = 0; i < expected.length; i++) {
+      float loudest = 0.0f;
+      for (float amplitude : expected[i])
+        loudest = Math.max(loudest, amplitude);
+      assertArrayEquals(expected[i], actual[i], (float) (loudest * Transform.SPARSE_KERNEL_TOLERANCE));
+    }
+  }
+
+  // Passing requirement: The average of each bin of the multirate engine is within MULTIRATE_TOLERANCE of the
+  // direct engine.
+  @Test
+  public void testMultirateTransform() throws IOException {
+    Reader reader = Reader.readFile("src/test/resource/pink_noise.wav");
+    float[][] expected = new Transform(reader, Transform.Engine.DIRECT).getFrequencyAmplitudes(Channel.LEFT);
+    float[][] actual = new Transform(reader, Transform.Engine.MULTIRATE).getFrequencyAmplitudes(Channel.LEFT);
+
+    assertEquals(expected.length, actual.length, "Incorrect duration of transform.");
+    for (int j = 0; j < Transform.FREQUENCY_RESOLUTION; j++) {
+      double expectedSum = 0.0, actualSum = 0.0;
+      for (int i = 0; i < expected.length; i++) {
+        expectedSum += expected[i][j];
+        actualSum += actual[i][j];
+      }
+      assertEquals(1.0, actualSum / expectedSum, Transform.MULTIRATE_TOLERANCE, "Average of frequency " +
+          Transform.frequencyAtBin(j) + " is outside error bound (1 +- " + Transform.MULTIRATE_TOLERANCE + ")");
+    }
+  }
+
+  // Passing requirement: The vector kernel gives the same amplitudes as the scalar loop, apart from float rounding.
+  // Skipped when java isn't run with --add-modules jdk.incubator.vector.
+  @Test
+  public void testVectorKernel() throws IOException {
+    Reader reader = Reader.readFile("src/test/resource/pink_noise.wav");
+    for (Transform.Engine engine : new Transform.Engine[] {Transform.Engine.DIRECT, Transform.Engine.MULTIRATE}) {
+      Transform.setVectorKernel(false);
+      float[][] expected = new Transform(reader, engine).getFrequencyAmplitudes(Channel.LEFT);
+      try {
+        assumeTrue(Transform.setVectorKernel(true), "Vector API not available");
+        float[][] actual = new Transform(reader, engine).getFrequencyAmplitudes(Channel.LEFT);
+
+        assertEquals(expected.length, actual.length, "Incorrect duration of transform.");
+        for (int i = 0; i < expected.length; i++)
+          assertArrayEquals(expected[i], actual[i], 0.001f);
+      } finally {
+        Transform.setVectorKernel(false);
+      }
+    }
+  }
 }